@@ -1,34 +1,114 @@
 package com.srishna.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 public class AsyncConfig {
 
-    /** Bounded executor for GCS DB sync so API responses return immediately. */
-    @Bean(name = "dbSyncExecutor")
-    public Executor dbSyncExecutor() {
+    /**
+     * Single-thread scheduler for debounced GCS DB sync so API responses return immediately.
+     * Keeps accepting tasks after context close so the shutdown flush in DbSyncHelper is not rejected.
+     */
+    @Bean(name = "dbSyncScheduler")
+    public ThreadPoolTaskScheduler dbSyncScheduler() {
+        ThreadPoolTaskScheduler s = new ThreadPoolTaskScheduler();
+        s.setPoolSize(1);
+        s.setRemoveOnCancelPolicy(true);
+        s.setAcceptTasksAfterContextClose(true);
+        s.setThreadNamePrefix("db-sync-");
+        s.initialize();
+        return s;
+    }
+
+    /** Single-thread scheduler for the share event write-behind buffer (periodic and batch-size flushes). */
+    @Bean(name = "shareEventScheduler")
+    public ThreadPoolTaskScheduler shareEventScheduler() {
+        ThreadPoolTaskScheduler s = new ThreadPoolTaskScheduler();
+        s.setPoolSize(1);
+        s.setThreadNamePrefix("share-events-");
+        s.initialize();
+        return s;
+    }
+
+    /** Single-thread scheduler for periodic saves of the warm cache snapshot (WarmCacheSnapshot). */
+    @Bean(name = "cacheSnapshotScheduler")
+    public ThreadPoolTaskScheduler cacheSnapshotScheduler() {
+        ThreadPoolTaskScheduler s = new ThreadPoolTaskScheduler();
+        s.setPoolSize(1);
+        s.setThreadNamePrefix("cache-snapshot-");
+        s.initialize();
+        return s;
+    }
+
+    /**
+     * Single-thread scheduler for periodic image URL cache warming (the signing itself runs on signedUrlExecutor)
+     * and the image derivative sweep (resizing runs on imageDerivativeExecutor).
+     */
+    @Bean(name = "cacheWarmerScheduler")
+    public ThreadPoolTaskScheduler cacheWarmerScheduler() {
+        ThreadPoolTaskScheduler s = new ThreadPoolTaskScheduler();
+        s.setPoolSize(1);
+        s.setThreadNamePrefix("url-cache-warmer-");
+        s.initialize();
+        return s;
+    }
+
+    /**
+     * Pool for resizing uploaded images (ImageDerivatives). Decoding is memory heavy, so threads stay few; when the
+     * queue is full the task is rejected and the post is left for the periodic sweep.
+     */
+    @Bean(name = "imageDerivativeExecutor")
+    public ThreadPoolTaskExecutor imageDerivativeExecutor(
+            @Value("${app.derivatives.threads:2}") int threads,
+            @Value("${app.derivatives.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor e = new ThreadPoolTaskExecutor();
+        e.setCorePoolSize(threads);
+        e.setMaxPoolSize(threads);
+        e.setQueueCapacity(queueCapacity);
+        e.setThreadNamePrefix("image-derivatives-");
+        e.initialize();
+        return e;
+    }
+
+    /**
+     * Pool for GCS uploads that run beside the request (text archive of a new post). Bounded; when the queue is full
+     * the caller uploads itself. Queued archives are finished on shutdown.
+     */
+    @Bean(name = "uploadExecutor")
+    public Executor uploadExecutor(
+            @Value("${app.upload.threads:8}") int threads,
+            @Value("${app.upload.queue-capacity:200}") int queueCapacity) {
         ThreadPoolTaskExecutor e = new ThreadPoolTaskExecutor();
-        e.setCorePoolSize(1);
-        e.setMaxPoolSize(2);
-        e.setQueueCapacity(10);
-        e.setThreadNamePrefix("db-sync-");
+        e.setCorePoolSize(threads);
+        e.setMaxPoolSize(threads);
+        e.setQueueCapacity(queueCapacity);
+        e.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        e.setWaitForTasksToCompleteOnShutdown(true);
+        e.setAwaitTerminationSeconds(30);
+        e.setThreadNamePrefix("upload-");
         e.initialize();
         return e;
     }
 
-    /** Single-thread executor for image URL cache warming (runs after startup, does not block requests). */
-    @Bean(name = "cacheWarmerExecutor")
-    public Executor cacheWarmerExecutor() {
+    /**
+     * Pool for signing GCS URLs: background refresh of the signed-URL cache and parallel signing of list misses.
+     * When the queue is full the caller signs itself instead of failing.
+     */
+    @Bean(name = "signedUrlExecutor")
+    public Executor signedUrlExecutor(@Value("${gcp.signed-url-cache.threads:4}") int threads) {
         ThreadPoolTaskExecutor e = new ThreadPoolTaskExecutor();
-        e.setCorePoolSize(1);
-        e.setMaxPoolSize(1);
-        e.setQueueCapacity(1);
-        e.setThreadNamePrefix("url-cache-warmer-");
+        e.setCorePoolSize(threads);
+        e.setMaxPoolSize(threads);
+        e.setQueueCapacity(1000);
+        e.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        e.setThreadNamePrefix("signed-url-");
         e.initialize();
         return e;
     }
@@ -5,7 +5,8 @@ import org.springframework.context.annotation.Configuration;
 
 /**
  * Enables caching for post list APIs. Cache type and spec are configured in application.yml
- * (spring.cache.type=caffeine, spring.cache.caffeine.spec). Eviction on write is in PostService.
+ * (spring.cache.type=caffeine, spring.cache.caffeine.spec). Entries are keyed by DataGeneration, which post
+ * writes bump, so a write invalidates without evicting; stats are exposed at GET /api/admin/cache/stats.
  */
 @Configuration
 @EnableCaching
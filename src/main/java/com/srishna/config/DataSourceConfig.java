@@ -0,0 +1,86 @@
+package com.srishna.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * SQLite DataSource that can be repointed at a new DB file without a restart (used by /api/admin/revert-db).
+ * Each pool is built like Spring Boot's default Hikari pool: spring.datasource.* plus spring.datasource.hikari.*.
+ * SQLite allows one writer at a time, so every swap generation is a {@link SqliteRoutingDataSource}: one writer
+ * connection (journal_mode=WAL) behind a bounded queue, and a read-only pool that WAL lets run alongside it.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    /** SQLITE_OPEN_READONLY; the reader pool cannot create the file or take the write lock. */
+    private static final String OPEN_READONLY = "1";
+
+    @Value("${app.db-swap.pause-timeout-ms:10000}")
+    private long pauseTimeoutMs;
+
+    @Value("${app.sqlite.read-pool-size:4}")
+    private int readPoolSize;
+
+    @Value("${app.sqlite.write-queue-capacity:64}")
+    private int writeQueueCapacity;
+
+    @Value("${app.sqlite.write-queue-timeout-ms:5000}")
+    private long writeQueueTimeoutMs;
+
+    @Value("${app.sqlite.busy-timeout-ms:5000}")
+    private long busyTimeoutMs;
+
+    @Value("${app.sqlite.synchronous:NORMAL}")
+    private String synchronous;
+
+    @Value("${app.sqlite.cache-size-kib:16384}")
+    private long cacheSizeKib;
+
+    @Value("${app.sqlite.mmap-size-bytes:268435456}")
+    private long mmapSizeBytes;
+
+    @Bean
+    public HotSwapDataSource dataSource(DataSourceProperties properties, Environment environment) {
+        return new HotSwapDataSource(() -> {
+            HikariDataSource writer = pool(properties, environment, "sqlite-writer");
+            writer.setMaximumPoolSize(1);
+            writer.setMinimumIdle(1);
+            writer.addDataSourceProperty("journal_mode", "WAL");
+            // Opening the writer first creates the file and switches it to WAL before any reader attaches.
+            try {
+                writer.getConnection().close();
+            } catch (SQLException e) {
+                writer.close();
+                throw new IllegalStateException("Cannot open SQLite writer: " + e.getMessage(), e);
+            }
+            HikariDataSource reader = pool(properties, environment, "sqlite-reader");
+            reader.setMaximumPoolSize(readPoolSize);
+            reader.setMinimumIdle(1);
+            reader.addDataSourceProperty("open_mode", OPEN_READONLY);
+            // Hikari applies its read-only flag to every new connection; sqlite-jdbc rejects a mismatch.
+            reader.setReadOnly(true);
+            return new SqliteRoutingDataSource(writer, reader, writeQueueCapacity, writeQueueTimeoutMs);
+        }, Duration.ofMillis(pauseTimeoutMs));
+    }
+
+    private HikariDataSource pool(DataSourceProperties properties, Environment environment, String name) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        pool.setPoolName(name);
+        pool.addDataSourceProperty("synchronous", synchronous);
+        pool.addDataSourceProperty("busy_timeout", String.valueOf(busyTimeoutMs));
+        // Negative cache_size is in KiB rather than pages.
+        pool.addDataSourceProperty("cache_size", String.valueOf(-cacheSizeKib));
+        pool.addDataSourceProperty("mmap_size", String.valueOf(mmapSizeBytes));
+        return pool;
+    }
+}
@@ -1,9 +1,9 @@
 package com.srishna.config;
 
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
+import com.srishna.service.DbReplica;
 import org.springframework.core.env.Environment;
 import org.springframework.util.StringUtils;
 
@@ -17,6 +17,9 @@ import java.nio.file.Paths;
 /**
  * Runs before the DataSource is created. Always downloads the SQLite DB from the GCS bucket
  * (gs://bucket/data/srishna.db) to the local path so both local and Cloud Run use the same DB.
+ * Incremental segments written since that base are replayed on top (see {@link DbReplica}). The base is
+ * fetched with parallel ranged reads, checksum-verified and moved into place atomically; the download is
+ * skipped when the local file is still the restored copy of the same remote generation.
  * Source: https://storage.googleapis.com/prod_srishna_web/data/srishna.db
  */
 public class GcpDbRestoreInitializer implements org.springframework.context.ApplicationContextInitializer<org.springframework.context.ConfigurableApplicationContext> {
@@ -42,13 +45,17 @@ public class GcpDbRestoreInitializer implements org.springframework.context.Appl
                 Files.createDirectories(path.getParent());
             }
             Storage storage = createStorage(env);
-            BlobId blobId = BlobId.of(bucketName, dbObjectName);
-            com.google.cloud.storage.Blob blob = storage.get(blobId);
-            if (blob != null && blob.exists()) {
-                byte[] bytes = blob.getContent();
-                if (bytes != null && bytes.length > 0) {
-                    Files.write(path, bytes);
-                }
+            String segmentsPrefix = env.getProperty("gcp.db-segments-prefix", "data/srishna.db-segments/");
+            int parallelism = env.getProperty("gcp.db-restore.parallelism", Integer.class, 4);
+            long started = System.nanoTime();
+            DbReplica.RestoreResult result = DbReplica.restore(storage, bucketName, dbObjectName, segmentsPrefix, path, parallelism);
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            if (result != null && result.skipped()) {
+                System.out.println("[GcpDb] Local DB already matches gs://" + bucketName + "/" + dbObjectName
+                        + " generation " + result.generation() + " (" + result.segments() + " segments), skipped download in " + elapsedMs + " ms");
+            } else if (result != null) {
+                System.out.println("[GcpDb] Restored gs://" + bucketName + "/" + dbObjectName + " generation " + result.generation()
+                        + " (" + result.bytes() + " bytes, " + result.segments() + " segments) to " + path + " in " + elapsedMs + " ms");
             }
             // If no blob in GCS, SQLite will create DB on first connect; first write will upload to GCS
         } catch (Exception e) {
@@ -0,0 +1,184 @@
+package com.srishna.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * DataSource that lets the SQLite file be replaced while the app runs. Every borrowed connection holds a
+ * gate permit until it is closed. {@link #swap} closes the gate to new borrowers, waits for open connections
+ * to drain, closes the pool, runs the file replacement and opens a fresh pool from the factory. Callers
+ * that arrive during a swap wait (up to the pause timeout) instead of failing.
+ */
+@Slf4j
+public class HotSwapDataSource extends DelegatingDataSource implements Closeable {
+
+    /** Replaces the DB file while no connection is open. */
+    @FunctionalInterface
+    public interface FileSwap {
+        void run() throws IOException;
+    }
+
+    private final Supplier<? extends javax.sql.DataSource> poolFactory;
+    private final long pauseTimeoutMs;
+
+    private final Object gate = new Object();
+    private int active;
+    private boolean paused;
+
+    public HotSwapDataSource(Supplier<? extends javax.sql.DataSource> poolFactory, Duration pauseTimeout) {
+        super(poolFactory.get());
+        this.poolFactory = poolFactory;
+        this.pauseTimeoutMs = pauseTimeout.toMillis();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        enter();
+        try {
+            return track(getTargetDataSource().getConnection());
+        } catch (SQLException | RuntimeException e) {
+            leave();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        enter();
+        try {
+            return track(getTargetDataSource().getConnection(username, password));
+        } catch (SQLException | RuntimeException e) {
+            leave();
+            throw e;
+        }
+    }
+
+    /** Same as {@link #swap(FileSwap, FileSwap, Duration)} with nothing to restore. */
+    public void swap(FileSwap fileSwap, Duration drainTimeout) throws IOException {
+        swap(fileSwap, () -> { }, drainTimeout);
+    }
+
+    /**
+     * Pauses new connections, drains open ones (up to {@code drainTimeout}), closes the pool, runs {@code fileSwap}
+     * and reopens the pool. If the file swap fails, or the new file cannot be opened, {@code restore} puts the
+     * previous file back and the pool is reopened on it, so the app keeps serving the old file; connections are
+     * resumed in every case.
+     */
+    public void swap(FileSwap fileSwap, FileSwap restore, Duration drainTimeout) throws IOException {
+        long started = System.nanoTime();
+        synchronized (gate) {
+            paused = true;
+            long deadline = System.currentTimeMillis() + drainTimeout.toMillis();
+            try {
+                while (active > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("Timed out waiting for " + active + " DB connections to close");
+                    }
+                    gate.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                resume();
+                throw new IOException("Interrupted while draining DB connections", e);
+            } catch (IOException e) {
+                resume();
+                throw e;
+            }
+        }
+        try {
+            closePool(getTargetDataSource());
+            try {
+                fileSwap.run();
+            } catch (IOException | RuntimeException e) {
+                try {
+                    restore.run();
+                } catch (IOException | RuntimeException restoreFailed) {
+                    e.addSuppressed(restoreFailed);
+                }
+                throw e;
+            }
+        } finally {
+            try {
+                reopen(restore);
+            } finally {
+                synchronized (gate) {
+                    resume();
+                }
+                log.info("DB connections paused for {} ms during swap", (System.nanoTime() - started) / 1_000_000);
+            }
+        }
+    }
+
+    /** Opens a pool on the current file; if that fails, on the file {@code restore} puts back, and reports the failure. */
+    private void reopen(FileSwap restore) throws IOException {
+        try {
+            setTargetDataSource(poolFactory.get());
+        } catch (RuntimeException e) {
+            log.error("Cannot open the swapped-in DB, restoring the previous file: {}", e.getMessage());
+            restore.run();
+            setTargetDataSource(poolFactory.get());
+            throw new IOException("Swapped-in DB could not be opened; the previous DB was restored", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closePool(getTargetDataSource());
+    }
+
+    private void enter() throws SQLException {
+        synchronized (gate) {
+            long deadline = System.currentTimeMillis() + pauseTimeoutMs;
+            while (paused) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SQLTransientConnectionException("DB is being swapped, try again");
+                }
+                try {
+                    gate.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLTransientConnectionException("Interrupted while waiting for DB swap", e);
+                }
+            }
+            active++;
+        }
+    }
+
+    private void leave() {
+        synchronized (gate) {
+            active--;
+            gate.notifyAll();
+        }
+    }
+
+    /** Caller holds the gate lock. */
+    private void resume() {
+        paused = false;
+        gate.notifyAll();
+    }
+
+    /** Wraps the connection so closing it (once) gives the gate permit back. */
+    private Connection track(Connection target) {
+        return TrackedConnections.onClose(target, this::leave);
+    }
+
+    private static void closePool(javax.sql.DataSource pool) {
+        if (pool instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("Failed to close DB pool: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -2,37 +2,55 @@ package com.srishna.config;
 
 import com.srishna.entity.Post;
 import com.srishna.repository.PostRepository;
+import com.srishna.repository.ShareVisitRepository;
+import com.srishna.service.ImageDerivatives;
+import com.srishna.service.PostAccessSketch;
 import com.srishna.service.StorageService;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.Map;
 
 /**
- * Warms the image signed-URL cache in the background after startup so list APIs return
- * imageUrl immediately. First batch (e.g. 100) is warmed; when a trigger ratio (e.g. 80%)
- * is reached, the next batch is started. No API or response behaviour change.
+ * Keeps signed URLs of the most requested images warm, so /img/{id} redirects and list APIs rarely wait on signing.
+ * Every interval it ranks active posts by recent requests ({@link PostAccessSketch}: /img, single post and HTML view
+ * hits) plus share link visits in the last share-window-hours, tops the set up with the newest posts (first feed
+ * page, which also covers a fresh start with no statistics), and then signs, hottest first, in batches of
+ * {@code parallelism}: URLs that are missing, and URLs with less than rewarm-before-expiry-minutes left. Posts whose
+ * derivatives are ready get their thumb and medium copies signed too, since those are what feed cards load.
+ * No API or response behaviour change.
  */
 @Component
 @Slf4j
 public class ImageUrlCacheWarmer {
 
     private final PostRepository postRepository;
+    private final ShareVisitRepository shareVisitRepository;
+    private final PostAccessSketch postAccessSketch;
     private final StorageService storageService;
-    private final Executor cacheWarmerExecutor;
+    private final TaskScheduler cacheWarmerScheduler;
 
     public ImageUrlCacheWarmer(PostRepository postRepository,
+                               ShareVisitRepository shareVisitRepository,
+                               PostAccessSketch postAccessSketch,
                                StorageService storageService,
-                               @Qualifier("cacheWarmerExecutor") Executor cacheWarmerExecutor) {
+                               @Qualifier("cacheWarmerScheduler") TaskScheduler cacheWarmerScheduler) {
         this.postRepository = postRepository;
+        this.shareVisitRepository = shareVisitRepository;
+        this.postAccessSketch = postAccessSketch;
         this.storageService = storageService;
-        this.cacheWarmerExecutor = cacheWarmerExecutor;
+        this.cacheWarmerScheduler = cacheWarmerScheduler;
     }
 
     @Value("${gcp.url-cache-warm.enabled:true}")
@@ -41,62 +59,88 @@ public class ImageUrlCacheWarmer {
     @Value("${gcp.url-cache-warm.delay-seconds:5}")
     private int delaySeconds;
 
-    @Value("${gcp.url-cache-warm.batch-size:100}")
-    private int batchSize;
+    @Value("${gcp.url-cache-warm.interval-seconds:300}")
+    private int intervalSeconds;
+
+    @Value("${gcp.url-cache-warm.hot-set-size:500}")
+    private int hotSetSize;
+
+    @Value("${gcp.url-cache-warm.parallelism:8}")
+    private int parallelism;
 
-    @Value("${gcp.url-cache-warm.trigger-ratio:0.8}")
-    private double triggerRatio;
+    @Value("${gcp.url-cache-warm.rewarm-before-expiry-minutes:120}")
+    private int rewarmBeforeExpiryMinutes;
 
-    @Value("${gcp.url-cache-warm.max-batches:2}")
-    private int maxBatches;
+    @Value("${gcp.url-cache-warm.share-window-hours:24}")
+    private int shareWindowHours;
 
     @EventListener(ApplicationReadyEvent.class)
     public void onApplicationReady() {
-        if (!enabled) return;
-        cacheWarmerExecutor.execute(this::runWarming);
+        if (!enabled || storageService.isPublicUrls()) return;
+        log.info("Image URL cache warming every {} s (hotSetSize={}, parallelism={}, rewarmBeforeExpiry={} min)",
+                intervalSeconds, hotSetSize, parallelism, rewarmBeforeExpiryMinutes);
+        cacheWarmerScheduler.scheduleWithFixedDelay(this::warmQuietly,
+                Instant.now().plusSeconds(delaySeconds), Duration.ofSeconds(intervalSeconds));
     }
 
-    private void runWarming() {
-        if (delaySeconds > 0) {
-            try {
-                Thread.sleep(delaySeconds * 1000L);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.debug("URL cache warming interrupted during delay");
-                return;
-            }
+    private void warmQuietly() {
+        try {
+            warm();
+        } catch (Exception e) {
+            log.warn("Image URL cache warming failed: {}", e.getMessage());
         }
-        log.info("Image URL cache warming started (batchSize={}, triggerRatio={}, maxBatches={})", batchSize, triggerRatio, maxBatches);
-        warmBatch(0);
     }
 
-    /**
-     * Warms the signed-URL cache for posts in the given page. When triggerRatio of the
-     * batch is reached, submits the next page to the executor so it runs in parallel.
-     */
-    private void warmBatch(int pageIndex) {
-        if (pageIndex >= maxBatches) return;
-        List<Post> posts = postRepository.findAllByOrderByCreatedAtDesc(
-                PageRequest.of(pageIndex, batchSize)
-        ).getContent();
-        if (posts.isEmpty()) return;
-
-        int triggerAt = (int) Math.ceil(posts.size() * triggerRatio);
-        for (int i = 0; i < posts.size(); i++) {
-            Post post = posts.get(i);
-            String path = post.getImagePath();
-            if (path != null && !path.isBlank()) {
-                try {
-                    storageService.getPublicUrl(path);
-                } catch (Exception e) {
-                    log.trace("Failed to warm URL for {}: {}", path, e.getMessage());
-                }
+    void warm() {
+        long started = System.nanoTime();
+        List<String> paths = hotImagePaths().values().stream().flatMap(List::stream).toList();
+        Duration minRemaining = Duration.ofMinutes(rewarmBeforeExpiryMinutes);
+        int signed = 0;
+        int batch = Math.max(1, parallelism);
+        for (int from = 0; from < paths.size(); from += batch) {
+            signed += storageService.warmSignedUrls(paths.subList(from, Math.min(paths.size(), from + batch)), minRemaining);
+        }
+        log.debug("Image URL cache warming: {} hot image objects, {} signed in {} ms",
+                paths.size(), signed, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /** Image paths (derivatives first) of the hot active posts by post id, hottest first, at most hotSetSize posts. */
+    private Map<Long, List<String>> hotImagePaths() {
+        Map<Long, Long> scores = new HashMap<>();
+        postAccessSketch.hottest(hotSetSize).forEach(e -> scores.merge(e.getKey(), (long) e.getValue(), Long::sum));
+        Instant since = Instant.now().minus(Duration.ofHours(shareWindowHours));
+        for (Object[] row : shareVisitRepository.countVisitsByPostSince(since, PageRequest.of(0, hotSetSize))) {
+            scores.merge((Long) row[0], (Long) row[1], Long::sum);
+        }
+
+        Map<Long, List<String>> paths = new LinkedHashMap<>();
+        if (!scores.isEmpty()) {
+            Map<Long, List<String>> active = new HashMap<>();
+            for (Object[] row : postRepository.findActiveImagePaths(scores.keySet())) {
+                active.put((Long) row[0], warmPaths(row));
             }
-            if (i + 1 == triggerAt && pageIndex + 1 < maxBatches) {
-                final int nextPage = pageIndex + 1;
-                cacheWarmerExecutor.execute(() -> warmBatch(nextPage));
+            scores.entrySet().stream()
+                    .sorted(Map.Entry.<Long, Long>comparingByValue().reversed())
+                    .map(Map.Entry::getKey)
+                    .filter(active::containsKey)
+                    .limit(hotSetSize)
+                    .forEach(id -> paths.put(id, active.get(id)));
+        }
+        if (paths.size() < hotSetSize) {
+            for (Object[] row : postRepository.findNewestActiveImagePaths(PageRequest.of(0, hotSetSize - paths.size()))) {
+                paths.putIfAbsent((Long) row[0], warmPaths(row));
             }
         }
-        log.debug("Image URL cache warmed batch page {} ({} posts)", pageIndex, posts.size());
+        return paths;
+    }
+
+    /** Objects to sign for an [id, imagePath, derivativeStatus] row: the feed sizes once ready, and the original. */
+    private static List<String> warmPaths(Object[] row) {
+        String imagePath = (String) row[1];
+        if (imagePath == null || imagePath.isEmpty()) return List.of();
+        if (row[2] != Post.DerivativeStatus.READY) return List.of(imagePath);
+        return List.of(ImageDerivatives.derivedPath(imagePath, ImageDerivatives.Size.THUMB),
+                ImageDerivatives.derivedPath(imagePath, ImageDerivatives.Size.MEDIUM),
+                imagePath);
     }
 }
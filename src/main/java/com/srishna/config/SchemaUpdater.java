@@ -0,0 +1,88 @@
+package com.srishna.config;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.TargetType;
+import org.hibernate.tool.schema.internal.ExceptionHandlerHaltImpl;
+import org.hibernate.tool.schema.spi.ContributableMatcher;
+import org.hibernate.tool.schema.spi.ExecutionOptions;
+import org.hibernate.tool.schema.spi.SchemaManagementTool;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+import org.hibernate.tool.schema.spi.ScriptTargetOutput;
+import org.hibernate.tool.schema.spi.TargetDescriptor;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings a DB file up to the mapped schema, as ddl-auto=update does at startup, so a file written by an older app
+ * version (a retained snapshot or GCS base) can be hot-swapped in: run it on the side file before the swap. It uses
+ * the entity mappings the running app was built with, captured from Hibernate's bootstrap.
+ */
+@Component
+public class SchemaUpdater implements HibernatePropertiesCustomizer, Integrator {
+
+    private volatile Metadata metadata;
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put("hibernate.integrator_provider", (IntegratorProvider) () -> List.of(this));
+    }
+
+    @Override
+    public void integrate(Metadata metadata, BootstrapContext bootstrapContext, SessionFactoryImplementor sessionFactory) {
+        this.metadata = metadata;
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    /** Adds the tables, columns and indexes {@code dbFile} is missing; it must not be in use by the app. */
+    public void update(Path dbFile) throws IOException {
+        Metadata mapped = metadata;
+        if (mapped == null) throw new IOException("Entity mappings are not known yet");
+        DriverManagerDataSource target = new DriverManagerDataSource("jdbc:sqlite:" + dbFile);
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.JAKARTA_NON_JTA_DATASOURCE, target)
+                .applySetting(AvailableSettings.DIALECT, mapped.getDatabase().getDialect().getClass().getName())
+                // Skip the FTS5 tables, as in application.yml; PostSearchIndex recreates them after a swap
+                .applySetting(AvailableSettings.HBM2DDL_JDBC_METADATA_EXTRACTOR_STRATEGY, "individually")
+                .build();
+        try {
+            Map<String, Object> settings = registry.requireService(ConfigurationService.class).getSettings();
+            ExecutionOptions options =
+                    SchemaManagementToolCoordinator.buildExecutionOptions(settings, ExceptionHandlerHaltImpl.INSTANCE);
+            registry.requireService(SchemaManagementTool.class).getSchemaMigrator(settings)
+                    .doMigration(mapped, options, ContributableMatcher.ALL, new TargetDescriptor() {
+                        @Override
+                        public EnumSet<TargetType> getTargetTypes() {
+                            return EnumSet.of(TargetType.DATABASE);
+                        }
+
+                        @Override
+                        public ScriptTargetOutput getScriptTargetOutput() {
+                            return null;
+                        }
+                    });
+        } catch (RuntimeException e) {
+            throw new IOException("Could not update the schema of " + dbFile + ": " + e.getMessage(), e);
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+}
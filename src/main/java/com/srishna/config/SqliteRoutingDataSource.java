@@ -0,0 +1,91 @@
+package com.srishna.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-writer execution model for SQLite. Read-only transactions (including Spring Data's read methods) get a
+ * connection from the read-only pool; everything else goes to the one writer connection. Waiting writers form a
+ * bounded queue: when it is full, or a writer waits longer than the queue timeout, the caller fails fast instead of
+ * piling up behind SQLITE_BUSY. Routing happens on first use of the connection, after the transaction has been
+ * marked read-only, which is what {@link LazyConnectionDataSourceProxy} provides.
+ */
+public class SqliteRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private final DataSource writer;
+    private final DataSource reader;
+
+    public SqliteRoutingDataSource(DataSource writer, DataSource reader, int writeQueueCapacity, long writeQueueTimeoutMs) {
+        this.writer = writer;
+        this.reader = reader;
+        // Known SQLite defaults, so the proxy does not borrow the writer just to probe them.
+        setDefaultAutoCommit(true);
+        setDefaultTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        setReadOnlyDataSource(reader);
+        setTargetDataSource(new BoundedWriter(writer, writeQueueCapacity, writeQueueTimeoutMs));
+        afterPropertiesSet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (reader instanceof Closeable r) r.close();
+        } finally {
+            if (writer instanceof Closeable w) w.close();
+        }
+    }
+
+    /**
+     * Admits at most {@code queueCapacity} waiting writers (anything beyond that fails immediately), then hands the
+     * writer connection out in arrival order. Both permits are held until the connection is closed.
+     */
+    private static final class BoundedWriter extends DelegatingDataSource {
+
+        private final Semaphore queue;
+        private final Semaphore writer = new Semaphore(1, true);
+        private final long timeoutMs;
+
+        BoundedWriter(DataSource target, int queueCapacity, long timeoutMs) {
+            super(target);
+            this.queue = new Semaphore(1 + queueCapacity);
+            this.timeoutMs = timeoutMs;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (!queue.tryAcquire()) {
+                throw new SQLTransientConnectionException("SQLite write queue is full");
+            }
+            try {
+                if (!writer.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    queue.release();
+                    throw new SQLTransientConnectionException("Timed out waiting " + timeoutMs + " ms for the SQLite writer");
+                }
+            } catch (InterruptedException e) {
+                queue.release();
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("Interrupted while waiting for the SQLite writer", e);
+            }
+            try {
+                return TrackedConnections.onClose(getTargetDataSource().getConnection(), this::release);
+            } catch (SQLException | RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void release() {
+            writer.release();
+            queue.release();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.srishna.config;
+
+import com.srishna.service.JwtService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for uploads (POST, PUT or PATCH on app.upload-admission.paths, so resumable upload chunks too),
+ * checked before the body is read:
+ * <ul>
+ *   <li>per-user concurrency: at most per-user-concurrency uploads per user (per client IP when anonymous);</li>
+ *   <li>byte budget: the declared sizes (Content-Length, else the multipart max request size) of all admitted uploads
+ *       stay within max-inflight-bytes;</li>
+ *   <li>thread budget: at most max-concurrent uploads run; up to max-queued more wait up to queue-timeout-ms.</li>
+ * </ul>
+ * An upload over any limit gets 503 with Retry-After at once, so a burst of large uploads cannot take the heap, temp
+ * disk or the Tomcat threads that feed requests need. Counters are exposed via GET /api/admin/uploads/stats.
+ */
+@Component
+@Slf4j
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private static final AntPathMatcher PATHS = new AntPathMatcher();
+    private static final Set<String> UPLOAD_METHODS = Set.of("POST", "PUT", "PATCH");
+
+    private final JwtService jwtService;
+    private final boolean enabled;
+    private final List<String> paths;
+    private final long maxInflightBytes;
+    private final long maxRequestBytes;
+    private final int perUserConcurrency;
+    private final int maxQueued;
+    private final long queueTimeoutMs;
+    private final long retryAfterSeconds;
+
+    private final Semaphore running;
+    private final AtomicLong inflightBytes = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    /** Uploads in progress per client; entries are removed when they drop to zero. */
+    private final Map<String, Integer> perUser = new ConcurrentHashMap<>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong rejectedUser = new AtomicLong();
+    private final AtomicLong rejectedBytes = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedQueueTimeout = new AtomicLong();
+
+    public UploadAdmissionFilter(JwtService jwtService,
+                                 @Value("${app.upload-admission.enabled:true}") boolean enabled,
+                                 @Value("${app.upload-admission.paths:/api/posts,/api/uploads/*}") List<String> paths,
+                                 @Value("${app.upload-admission.max-inflight-bytes:268435456}") long maxInflightBytes,
+                                 @Value("${spring.servlet.multipart.max-request-size:100MB}") DataSize maxRequestSize,
+                                 @Value("${app.upload-admission.per-user-concurrency:2}") int perUserConcurrency,
+                                 @Value("${app.upload-admission.max-concurrent:4}") int maxConcurrent,
+                                 @Value("${app.upload-admission.max-queued:8}") int maxQueued,
+                                 @Value("${app.upload-admission.queue-timeout-ms:2000}") long queueTimeoutMs,
+                                 @Value("${app.upload-admission.retry-after-seconds:5}") long retryAfterSeconds) {
+        this.jwtService = jwtService;
+        this.enabled = enabled;
+        this.paths = paths;
+        this.maxInflightBytes = maxInflightBytes;
+        this.maxRequestBytes = maxRequestSize.toBytes();
+        this.perUserConcurrency = perUserConcurrency;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.running = new Semaphore(maxConcurrent, true);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        if (!enabled || !UPLOAD_METHODS.contains(request.getMethod())) return true;
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return paths.stream().noneMatch(pattern -> PATHS.match(pattern, path));
+    }
+
+    @Override
+    protected void doFilterInternal(
+            @NonNull HttpServletRequest request,
+            @NonNull HttpServletResponse response,
+            @NonNull FilterChain filterChain) throws ServletException, IOException {
+        String client = client(request);
+        if (!acquireUser(client)) {
+            reject(response, rejectedUser, "Too many uploads in progress for this user");
+            return;
+        }
+        long declared = request.getContentLengthLong();
+        long bytes = declared >= 0 ? Math.min(declared, maxRequestBytes) : maxRequestBytes;
+        try {
+            if (!reserveBytes(bytes)) {
+                reject(response, rejectedBytes, "Upload capacity exhausted");
+                return;
+            }
+            try {
+                if (!acquireSlot(response)) return;
+                try {
+                    admitted.incrementAndGet();
+                    filterChain.doFilter(request, response);
+                } finally {
+                    running.release();
+                }
+            } finally {
+                inflightBytes.addAndGet(-bytes);
+            }
+        } finally {
+            perUser.computeIfPresent(client, (k, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    /** Counters since startup plus current load. */
+    public Stats stats() {
+        return new Stats(running.availablePermits(), queued.get(), inflightBytes.get(), admitted.get(), waited.get(),
+                rejectedUser.get(), rejectedBytes.get(), rejectedQueueFull.get(), rejectedQueueTimeout.get());
+    }
+
+    /**
+     * {@code freeSlots}: upload threads available now; {@code queued}: uploads waiting for one; {@code waited}: admitted
+     * uploads that had to wait. Rejections are counted by the limit that was hit.
+     */
+    public record Stats(int freeSlots, int queued, long inflightBytes, long admitted, long waited,
+                        long rejectedPerUser, long rejectedBytes, long rejectedQueueFull, long rejectedQueueTimeout) {
+    }
+
+    private boolean reserveBytes(long bytes) {
+        while (true) {
+            long current = inflightBytes.get();
+            if (current + bytes > maxInflightBytes) return false;
+            if (inflightBytes.compareAndSet(current, current + bytes)) return true;
+        }
+    }
+
+    /** Takes an upload thread slot, waiting in the bounded queue if none is free; false once the 503 is sent. */
+    private boolean acquireSlot(HttpServletResponse response) throws IOException {
+        if (running.tryAcquire()) return true;
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            reject(response, rejectedQueueFull, "Too many uploads in progress");
+            return false;
+        }
+        try {
+            if (running.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                waited.incrementAndGet();
+                return true;
+            }
+            reject(response, rejectedQueueTimeout, "Too many uploads in progress");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(response, rejectedQueueTimeout, "Too many uploads in progress");
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private boolean acquireUser(String client) {
+        boolean[] acquired = {false};
+        perUser.compute(client, (k, n) -> {
+            int current = n == null ? 0 : n;
+            if (current >= perUserConcurrency) return n;
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    /** The user id from a valid bearer token, else the client address (the forwarded one behind Cloud Run). */
+    private String client(HttpServletRequest request) {
+        String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            String token = authHeader.substring(7);
+            if (jwtService.validateToken(token)) {
+                return "user:" + jwtService.getUserIdFromToken(token);
+            }
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, AtomicLong counter, String message) throws IOException {
+        if (counter.incrementAndGet() % 100 == 1) {
+            log.warn("Upload rejected: {} ({} such rejections so far)", message, counter.get());
+        }
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write(message + ", retry later.");
+    }
+}
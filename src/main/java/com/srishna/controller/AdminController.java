@@ -1,18 +1,45 @@
 package com.srishna.controller;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.srishna.config.UploadAdmissionFilter;
+import com.srishna.dto.CacheStatsDto;
+import com.srishna.dto.ImportResultDto;
+import com.srishna.dto.SnapshotDto;
+import com.srishna.service.DataGeneration;
 import com.srishna.service.DataSyncService;
+import com.srishna.service.PostImportService;
+import com.srishna.service.PostSearchIndex;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Admin endpoints for DB sync with GCS bucket.
  * POST /api/admin/backup-db – upload current DB to bucket.
- * POST /api/admin/revert-db – download DB from bucket to local (revert); restart app to use it.
+ * POST /api/admin/revert-db – rebuild DB from bucket and hot-swap it in (revert), no restart needed.
+ * GET /api/admin/snapshots – list stored DB snapshots (retention ring).
+ * POST /api/admin/snapshots/{id}/restore – make a stored snapshot the current DB (point-in-time restore).
+ * POST /api/admin/search/rebuild – rebuild the full-text search index from the posts table.
+ * GET /api/admin/cache/stats – hit/miss counters of the feed caches and the current data generation.
+ * POST /api/admin/import – bulk import posts from a ZIP (manifest.ndjson + images) or NDJSON stream.
+ * GET /api/admin/uploads/stats – upload admission: current load, queued, admitted and rejected uploads.
  */
 @RestController
 @RequestMapping("/api/admin")
@@ -20,6 +47,11 @@ import java.io.IOException;
 public class AdminController {
 
     private final DataSyncService dataSyncService;
+    private final PostSearchIndex postSearchIndex;
+    private final CacheManager cacheManager;
+    private final DataGeneration dataGeneration;
+    private final UploadAdmissionFilter uploadAdmissionFilter;
+    private final PostImportService postImportService;
 
     /**
      * Upload the current database file to GCS (gs://bucket/data/srishna.db)
@@ -37,19 +69,98 @@ public class AdminController {
     }
 
     /**
-     * Revert: download the DB from the GCP bucket to the local path (e.g. /tmp/srishna.db).
-     * Use this to restore data from the bucket so you do not lose existing data.
-     * Restart the application after calling this so it uses the reverted database.
+     * Revert: rebuild the DB from the GCP bucket into a side file and swap it in under the running app.
+     * New requests pause briefly while open connections drain; no restart is needed.
      */
     @PostMapping("/revert-db")
     public ResponseEntity<String> revertDb() {
         try {
-            dataSyncService.downloadDbFromGcs();
-            return ResponseEntity.ok(
-                    "DB reverted from GCS to local successfully. Restart the application to use the reverted data.");
+            dataSyncService.revertFromGcs();
+            return ResponseEntity.ok("DB reverted from GCS successfully. The reverted data is live.");
         } catch (IOException e) {
             return ResponseEntity.internalServerError()
                     .body("Revert failed: " + e.getMessage());
         }
     }
+
+    /** Stored DB snapshots, newest first. The one the current base was made from has current=true. */
+    @GetMapping("/snapshots")
+    public List<SnapshotDto> listSnapshots() {
+        return dataSyncService.listSnapshots();
+    }
+
+    /**
+     * Point-in-time restore: makes the chosen snapshot the DB in the bucket and swaps it in under the running app.
+     */
+    @PostMapping("/snapshots/{id}/restore")
+    public ResponseEntity<String> restoreSnapshot(@PathVariable String id) {
+        try {
+            if (!dataSyncService.restoreSnapshot(id)) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(
+                    "DB snapshot " + id + " restored. The restored data is live.");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body("Restore failed: " + e.getMessage());
+        }
+    }
+
+    /** Rebuild the FTS5 search index from the posts table (e.g. after editing the DB file by hand). */
+    @PostMapping("/search/rebuild")
+    public ResponseEntity<String> rebuildSearchIndex() {
+        try {
+            long indexed = postSearchIndex.rebuild();
+            return ResponseEntity.ok("Search index rebuilt: " + indexed + " posts indexed.");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.internalServerError().body("Rebuild failed: " + e.getMessage());
+        }
+    }
+
+    /** Feed cache statistics (Caffeine recordStats) and the data generation that cache keys are stamped with. */
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        List<CacheStatsDto> caches = new ArrayList<>();
+        for (String name : cacheManager.getCacheNames()) {
+            if (cacheManager.getCache(name) instanceof CaffeineCache cache) {
+                CacheStats stats = cache.getNativeCache().stats();
+                caches.add(CacheStatsDto.builder()
+                        .name(name)
+                        .size(cache.getNativeCache().estimatedSize())
+                        .hits(stats.hitCount())
+                        .misses(stats.missCount())
+                        .hitRate(stats.hitRate())
+                        .evictions(stats.evictionCount())
+                        .build());
+            }
+        }
+        return Map.of("dataGeneration", dataGeneration.current(), "caches", caches);
+    }
+
+    /**
+     * Bulk import (see PostImportService): the body is streamed, images are uploaded in parallel and posts inserted
+     * in batches. Returns per-item results; sending the same import again skips items already imported.
+     */
+    @PostMapping(value = "/import", consumes = {"application/zip", "application/x-ndjson"})
+    public ResponseEntity<?> importPosts(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                         HttpServletRequest request) throws IOException {
+        try {
+            InputStream body = request.getInputStream();
+            boolean zip = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.valueOf("application/zip"));
+            ImportResultDto result = zip ? postImportService.importZip(body) : postImportService.importNdjson(body);
+            return ResponseEntity.ok(result);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /** Upload admission counters (see UploadAdmissionFilter). */
+    @GetMapping("/uploads/stats")
+    public UploadAdmissionFilter.Stats uploadStats() {
+        return uploadAdmissionFilter.stats();
+    }
 }
@@ -0,0 +1,74 @@
+package com.srishna.controller;
+
+import com.srishna.entity.Post;
+import com.srishna.repository.PostRepository;
+import com.srishna.service.ImageDerivatives;
+import com.srishna.service.PostAccessSketch;
+import com.srishna.service.PostService;
+import com.srishna.service.StorageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stable image URL for a post: GET /img/{postId} redirects (302) to the current signed (or public) GCS URL.
+ * Post DTOs carry this URL instead of the signed URL, so feed bodies are small and stay valid when signatures
+ * rotate. The redirect itself is cacheable only briefly, well inside the signed URL's remaining validity.
+ * GET /img/{postId}/{size} does the same for the resized copies made by {@link ImageDerivatives}.
+ */
+@RestController
+@RequestMapping("/img")
+@RequiredArgsConstructor
+public class ImageController {
+
+    private final PostService postService;
+    private final StorageService storageService;
+    private final PostAccessSketch postAccessSketch;
+
+    @Value("${app.images.redirect-max-age-seconds:300}")
+    private long redirectMaxAgeSeconds;
+
+    @GetMapping("/{postId}")
+    public ResponseEntity<Void> image(@PathVariable Long postId) {
+        return redirect(postId, null);
+    }
+
+    /**
+     * Resized JPEG of the post image (thumb, medium, large). Until the derivatives exist (or if they failed) this
+     * redirects to the original, so clients can always use the sized URL.
+     */
+    @GetMapping("/{postId}/{size}")
+    public ResponseEntity<Void> sized(@PathVariable Long postId, @PathVariable String size) {
+        return ImageDerivatives.Size.of(size)
+                .map(parsed -> redirect(postId, parsed))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private ResponseEntity<Void> redirect(Long postId, ImageDerivatives.Size size) {
+        PostRepository.ImageRef ref = postService.findImage(postId).orElse(null);
+        if (ref == null || ref.getImagePath() == null || ref.getImagePath().isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        String path = size != null && ref.getDerivativeStatus() == Post.DerivativeStatus.READY
+                ? ImageDerivatives.derivedPath(ref.getImagePath(), size)
+                : ref.getImagePath();
+        String url = storageService.getPublicUrl(path);
+        if (url == null) {
+            return ResponseEntity.notFound().build();
+        }
+        postAccessSketch.record(postId);
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(URI.create(url))
+                .cacheControl(CacheControl.maxAge(redirectMaxAgeSeconds, TimeUnit.SECONDS).cachePublic())
+                .build();
+    }
+}
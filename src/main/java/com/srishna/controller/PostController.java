@@ -1,17 +1,24 @@
 package com.srishna.controller;
 
 import com.srishna.dto.ActivityDto;
+import com.srishna.dto.PostCursorPageDto;
 import com.srishna.dto.PostDto;
 import com.srishna.entity.Post;
+import com.srishna.service.FeedBodyCache;
+import com.srishna.service.PostAccessSketch;
 import com.srishna.service.PostActivityService;
 import com.srishna.service.PostService;
-import com.srishna.service.StorageService;
+import com.srishna.service.PostUploadService;
+import com.srishna.service.PostValidators;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -20,6 +27,8 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 @RestController
@@ -28,8 +37,14 @@ import java.util.concurrent.TimeUnit;
 public class PostController {
 
     private final PostService postService;
-    private final StorageService storageService;
+    private final PostUploadService postUploadService;
     private final PostActivityService postActivityService;
+    private final FeedBodyCache feedBodyCache;
+    private final PostValidators postValidators;
+    private final PostAccessSketch postAccessSketch;
+
+    @Value("${app.post-cache.max-age-seconds:60}")
+    private long postMaxAgeSeconds;
 
     @GetMapping
     public Page<PostDto> list(
@@ -43,38 +58,142 @@ public class PostController {
         return postService.findAllDtos(pr);
     }
 
+    /**
+     * Cursor-paginated list/search: pass the previous response's nextCursor as ?cursor= to get the next page.
+     * No count query and no OFFSET, so every page costs the same. The page/size API above stays for older clients.
+     */
+    @GetMapping("/cursor")
+    public ResponseEntity<PostCursorPageDto> listByCursor(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(50) int size) {
+        try {
+            return ResponseEntity.ok(postService.findCursorDtos(q, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     private static final CacheControl LIST_CACHE = CacheControl.maxAge(60, TimeUnit.SECONDS);
 
     /** Returns all posts as a list (newest first), no pagination. */
-    @GetMapping("/list")
-    public ResponseEntity<List<PostDto>> listAll() {
-        return ResponseEntity.ok()
-                .cacheControl(LIST_CACHE)
-                .body(postService.findAllAsList());
+    @GetMapping(value = "/list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> listAll(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return feed(feedBodyCache.get("active", postService::findAllAsList), ifNoneMatch, acceptEncoding);
     }
 
     /** Returns all active posts as a list (newest first), no pagination. Same as /list. */
-    @GetMapping("/all")
-    public ResponseEntity<List<PostDto>> listAllActive() {
-        return ResponseEntity.ok()
-                .cacheControl(LIST_CACHE)
-                .body(postService.findAllAsList());
+    @GetMapping(value = "/all", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> listAllActive(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return feed(feedBodyCache.get("active", postService::findAllAsList), ifNoneMatch, acceptEncoding);
     }
 
     /** Returns all posts (active + inactive) for admin list. */
-    @GetMapping("/admin/list")
-    public ResponseEntity<List<PostDto>> listAllForAdmin() {
-        return ResponseEntity.ok()
+    @GetMapping(value = "/admin/list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> listAllForAdmin(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return feed(feedBodyCache.get("all", postService::findAllIncludingInactive), ifNoneMatch, acceptEncoding);
+    }
+
+    /**
+     * Writes a pre-serialized feed: 304 if the client already has it, otherwise the cached gzip or identity bytes.
+     * The JSON is the same as before (a list of PostDto).
+     */
+    private static ResponseEntity<byte[]> feed(FeedBodyCache.FeedBody body, String ifNoneMatch, String acceptEncoding) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? body.gzipEtag() : body.etag();
+        if (body.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(LIST_CACHE)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(etag)
                 .cacheControl(LIST_CACHE)
-                .body(postService.findAllIncludingInactive());
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(body.gzip());
+        }
+        return response.body(body.identity());
     }
 
+    /**
+     * Whether Accept-Encoding allows gzip: a gzip (or x-gzip) coding with q > 0, or else {@code *} with q > 0.
+     * An explicit {@code gzip;q=0} refuses it even when {@code *} is listed.
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        Double gzipQ = null;
+        Double anyQ = null;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQ = gzipQ == null ? q : Math.max(gzipQ, q);
+            } else if (coding.equals("*")) {
+                anyQ = q;
+            }
+        }
+        if (gzipQ != null) return gzipQ > 0;
+        return anyQ != null && anyQ > 0;
+    }
+
+    /**
+     * Single post with ETag/Last-Modified. A revalidation (If-None-Match / If-Modified-Since) of a known post is
+     * answered with 304 from the in-memory validator, without loading the post.
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<PostDto> getById(@PathVariable Long id) {
-        return postService.findById(id)
-                .map(postService::toDto)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<PostDto> getById(@PathVariable Long id, @RequestHeader HttpHeaders headers) {
+        postAccessSketch.record(id);
+        PostValidators.Validator known = postValidators.peek(id);
+        if (known != null && known.isNotModified("json", headers)) {
+            return notModified(known, "json");
+        }
+        Optional<PostService.PostView> view = postService.findViewById(id);
+        if (view.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        PostValidators.Validator validator = view.get().validator();
+        if (validator.isNotModified("json", headers)) {
+            return notModified(validator, "json");
+        }
+        return ResponseEntity.ok()
+                .eTag(validator.etag("json"))
+                .lastModified(validator.lastModified())
+                .cacheControl(postCacheControl())
+                .body(view.get().dto());
+    }
+
+    private <T> ResponseEntity<T> notModified(PostValidators.Validator validator, String representation) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(validator.etag(representation))
+                .lastModified(validator.lastModified())
+                .cacheControl(postCacheControl())
+                .build();
+    }
+
+    /** Public so a CDN may store single posts; short max-age, then revalidate with the validators. */
+    private CacheControl postCacheControl() {
+        return CacheControl.maxAge(postMaxAgeSeconds, TimeUnit.SECONDS).cachePublic();
     }
 
     /** Set post active/inactive (excluded from list when inactive). */
@@ -104,14 +223,7 @@ public class PostController {
             Authentication auth,
             @RequestParam("image") MultipartFile image,
             @RequestParam(value = "text", required = false) String text) throws IOException {
-        Long userId = getUserIdFromAuth(auth);
-        String imagePath = storageService.uploadImage(image);
-        String textPath = null;
-        String textContent = text;
-        if (text != null && !text.isBlank()) {
-            textPath = storageService.uploadText(text);
-        }
-        Post post = postService.create(userId, imagePath, textPath, textContent);
+        Post post = postUploadService.create(getUserIdFromAuth(auth), image, text);
         return ResponseEntity.ok(postService.toDto(post));
     }
 
@@ -0,0 +1,196 @@
+package com.srishna.controller;
+
+import com.srishna.dto.PostDto;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Precompiled HTML share page for one post. Everything that does not depend on the post (markup, the ~4 KB CSS,
+ * the logo URL and the og:url prefix, which come from app.backend-url / app.base-url) is encoded to UTF-8 byte
+ * chunks once; rendering escapes each dynamic value once and concatenates chunks into a single byte array.
+ */
+final class PostPageTemplate {
+
+    private static final String MOBILE_CSS =
+            "  *{box-sizing:border-box;margin:0;padding:0}\n"
+            + "  html{font-size:clamp(14px,2.5vw,16px);-webkit-text-size-adjust:100%;height:100%}\n"
+            + "  body{background:#0b1220;color:#f1f5f9;font-family:-apple-system,BlinkMacSystemFont,'Segoe UI',Roboto,Oxygen-Sans,sans-serif;"
+            + "min-height:100vh;min-height:100dvh;height:100%;-webkit-font-smoothing:antialiased;"
+            + "display:flex;flex-direction:column;overflow:hidden}\n"
+            + "  .vp{display:flex;flex-direction:column;min-height:100vh;min-height:100dvh;height:100%;width:100%;max-width:100vw}\n"
+            + "  .vp-header{flex-shrink:0;width:100%;padding:clamp(10px,2.5vw,16px) clamp(12px,4vw,20px);"
+            + "padding-top:max(env(safe-area-inset-top),clamp(10px,2.5vw,16px));"
+            + "padding-left:max(env(safe-area-inset-left),clamp(12px,4vw,20px));"
+            + "padding-right:max(env(safe-area-inset-right),clamp(12px,4vw,20px));"
+            + "background:#0f172a;border-bottom:1px solid rgba(255,255,255,0.06);"
+            + "font-size:clamp(0.8rem,2vw,0.95rem);color:#94a3b8;letter-spacing:0.02em;"
+            + "display:flex;align-items:center;gap:clamp(8px,2.5vw,12px)}\n"
+            + "  .vp-logo{height:clamp(28px,7vw,36px);width:auto;display:block;flex-shrink:0}\n"
+            + "  .vp-brand{font-weight:700;color:#f1f5f9}\n"
+            + "  .vp-main{flex:1;min-height:0;overflow-y:auto;overflow-x:hidden;-webkit-overflow-scrolling:touch;"
+            + "padding:clamp(8px,2vw,16px) max(env(safe-area-inset-left),clamp(12px,4vw,24px)) clamp(8px,2vw,16px) max(env(safe-area-inset-right),clamp(12px,4vw,24px));"
+            + "display:flex;flex-direction:column;align-items:center}\n"
+            + "  .vp-card{width:100%;max-width:min(680px,100%);display:flex;flex-direction:column;flex-shrink:0;"
+            + "background:linear-gradient(180deg,rgba(30,41,59,0.6) 0%,rgba(15,23,42,0.95) 100%);"
+            + "border-radius:clamp(12px,3vw,20px);border:1px solid rgba(255,255,255,0.06);"
+            + "box-shadow:0 4px 24px rgba(0,0,0,0.4);overflow:hidden}\n"
+            + "  .vp-media{width:100%;background:#0f172a;overflow:hidden;line-height:0}\n"
+            + "  .vp-media img{width:100%;height:auto;display:block;object-fit:contain;max-height:min(82vh,800px);vertical-align:middle}\n"
+            + "  .vp-body{padding:clamp(14px,3.5vw,24px)}\n"
+            + "  .vp-title{font-size:clamp(1.1rem,3.5vw,1.45rem);font-weight:700;line-height:1.35;margin-bottom:clamp(6px,1.5vw,10px);"
+            + "color:#f1f5f9;letter-spacing:-0.01em;word-break:break-word}\n"
+            + "  .vp-meta{font-size:clamp(0.72rem,1.8vw,0.82rem);color:#94a3b8;margin-bottom:clamp(8px,2vw,14px);line-height:1.4}\n"
+            + "  .vp-text{font-size:clamp(0.9rem,2vw,1.02rem);line-height:1.6;color:#e2e8f0;white-space:pre-wrap;word-break:break-word}\n"
+            + "  .vp-footer{flex-shrink:0;width:100%;padding:clamp(10px,2.5vw,14px) clamp(12px,4vw,20px);"
+            + "padding-bottom:max(env(safe-area-inset-bottom),clamp(10px,2.5vw,14px));"
+            + "padding-left:max(env(safe-area-inset-left),clamp(12px,4vw,20px));"
+            + "padding-right:max(env(safe-area-inset-right),clamp(12px,4vw,20px));"
+            + "background:#0f172a;border-top:1px solid rgba(255,255,255,0.06);"
+            + "font-size:clamp(0.7rem,1.8vw,0.8rem);color:#94a3b8;display:flex;align-items:center;justify-content:flex-end}\n"
+            + "  .vp-footer-copy{min-width:0}\n"
+            + "  @media (max-width:360px){.vp-body{padding:12px}.vp-card{border-radius:10px}}\n"
+            + "  @media (min-width:480px){.vp-media{border-radius:14px 14px 0 0}.vp-media img{max-height:min(78vh,700px)}}\n"
+            + "  @media (min-width:768px){.vp-card{max-width:640px}.vp-main{padding:16px 24px}}\n"
+            + "  @media (max-height:500px){.vp-media img{max-height:70vh}}\n";
+
+    private final byte[] docStart;
+    private final byte[] afterTitle;
+    private final byte[] afterOgTitle;
+    private final byte[] afterOgDescription;
+    private final byte[] ogUrlPrefix;
+    private final byte[] afterOgUrl;
+    private final byte[] afterTwitterTitle;
+    private final byte[] afterTwitterDescription;
+    private final byte[] afterTwitterImage;
+    private final byte[] mediaStart;
+    private final byte[] mediaEnd;
+    private final byte[] bodyStart;
+    private final byte[] textStart;
+    private final byte[] textEnd;
+    private final byte[] docEnd;
+
+    PostPageTemplate(String baseUrl, String backendUrl) {
+        String logoFileName = "Srishna Iogo.png";
+        String staticBase = backendUrl.replaceAll("/$", "");
+        String logoUrl = staticBase + "/" + URLEncoder.encode(logoFileName, StandardCharsets.UTF_8).replace("+", "%20");
+
+        docStart = utf8("<!DOCTYPE html>\n"
+                + "<html lang=\"en\">\n"
+                + "<head>\n"
+                + "  <meta charset=\"UTF-8\">\n"
+                + "  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1, viewport-fit=cover\">\n"
+                + "  <meta name=\"theme-color\" content=\"#0f172a\">\n"
+                + "  <meta name=\"apple-mobile-web-app-capable\" content=\"yes\">\n"
+                + "  <meta name=\"apple-mobile-web-app-status-bar-style\" content=\"black-translucent\">\n"
+                + "  <title>");
+        afterTitle = utf8("</title>\n"
+                + "  <!-- Open Graph -->\n"
+                + "  <meta property=\"og:title\" content=\"");
+        afterOgTitle = utf8("\" />\n"
+                + "  <meta property=\"og:description\" content=\"");
+        afterOgDescription = utf8("\" />\n"
+                + "  <meta property=\"og:image\" content=\"");
+        ogUrlPrefix = utf8("\" />\n"
+                + "  <meta property=\"og:url\" content=\"" + HtmlUtils.htmlEscape(baseUrl.replaceAll("/$", "") + "/post/"));
+        afterOgUrl = utf8("/view\" />\n"
+                + "  <meta property=\"og:type\" content=\"article\" />\n"
+                + "  <!-- Twitter Card -->\n"
+                + "  <meta name=\"twitter:card\" content=\"summary_large_image\" />\n"
+                + "  <meta name=\"twitter:title\" content=\"");
+        afterTwitterTitle = utf8("\" />\n"
+                + "  <meta name=\"twitter:description\" content=\"");
+        afterTwitterDescription = utf8("\" />\n"
+                + "  <meta name=\"twitter:image\" content=\"");
+        afterTwitterImage = utf8("\" />\n"
+                + "  <style>\n"
+                + MOBILE_CSS
+                + "  </style>\n"
+                + "</head>\n"
+                + "<body>\n"
+                + "  <div class=\"vp\">\n"
+                + "    <header class=\"vp-header\"><img src=\"" + HtmlUtils.htmlEscape(logoUrl)
+                + "\" alt=\"Srishna\" class=\"vp-logo\" /><span class=\"vp-brand\">Srishna</span> Political</header>\n"
+                + "    <main class=\"vp-main\">\n"
+                + "      <article class=\"vp-card\">\n");
+        mediaStart = utf8("        <div class=\"vp-media\"><img src=\"");
+        mediaEnd = utf8("\" alt=\"\" loading=\"eager\" decoding=\"async\" /></div>\n");
+        bodyStart = utf8("        <div class=\"vp-body\">\n");
+        textStart = utf8("          <div class=\"vp-text\">");
+        textEnd = utf8("</div>\n");
+        docEnd = utf8("        </div>\n"
+                + "      </article>\n"
+                + "    </main>\n"
+                + "    <footer class=\"vp-footer\"><span class=\"vp-footer-copy\">© 2026 Srishna. All rights reserved.</span></footer>\n"
+                + "  </div>\n"
+                + "</body>\n"
+                + "</html>");
+    }
+
+    /** Renders the share page of {@code post} as UTF-8 bytes. */
+    byte[] render(PostDto post) {
+        String text = post.getTextContent();
+        byte[] title = escaped(titleFrom(post));
+        byte[] description = escaped(truncate(text != null ? text : "", 300));
+        byte[] image = escaped(post.getImageUrl() != null ? post.getImageUrl() : "");
+        byte[] id = utf8(String.valueOf(post.getId()));
+        byte[] bodyText = text != null ? escaped(text) : new byte[0];
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                afterTwitterImage.length + 1024 + 3 * title.length + 2 * description.length + 3 * image.length + bodyText.length);
+        out.writeBytes(docStart);
+        out.writeBytes(title);
+        out.writeBytes(afterTitle);
+        out.writeBytes(title);
+        out.writeBytes(afterOgTitle);
+        out.writeBytes(description);
+        out.writeBytes(afterOgDescription);
+        out.writeBytes(image);
+        out.writeBytes(ogUrlPrefix);
+        out.writeBytes(id);
+        out.writeBytes(afterOgUrl);
+        out.writeBytes(title);
+        out.writeBytes(afterTwitterTitle);
+        out.writeBytes(description);
+        out.writeBytes(afterTwitterDescription);
+        out.writeBytes(image);
+        out.writeBytes(afterTwitterImage);
+        if (image.length > 0) {
+            out.writeBytes(mediaStart);
+            out.writeBytes(image);
+            out.writeBytes(mediaEnd);
+        }
+        out.writeBytes(bodyStart);
+        if (bodyText.length > 0) {
+            out.writeBytes(textStart);
+            out.writeBytes(bodyText);
+            out.writeBytes(textEnd);
+        }
+        out.writeBytes(docEnd);
+        return out.toByteArray();
+    }
+
+    private static String titleFrom(PostDto post) {
+        if (post.getTextContent() != null && !post.getTextContent().isBlank()) {
+            return truncate(post.getTextContent().trim(), 60);
+        }
+        return "Post #" + post.getId();
+    }
+
+    private static String truncate(String s, int maxLen) {
+        if (s == null) return "";
+        s = s.trim();
+        if (s.length() <= maxLen) return s;
+        return s.substring(0, maxLen) + "...";
+    }
+
+    private static byte[] escaped(String value) {
+        return utf8(HtmlUtils.htmlEscape(value));
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
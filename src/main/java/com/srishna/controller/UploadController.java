@@ -0,0 +1,120 @@
+package com.srishna.controller;
+
+import com.srishna.entity.Post;
+import com.srishna.service.PostService;
+import com.srishna.service.PostUploadService;
+import com.srishna.service.ResumableUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+/**
+ * Resumable image uploads (see {@link ResumableUploadService}), modelled on tus: POST creates a session for
+ * Upload-Length bytes, HEAD reports the stored Upload-Offset, PATCH (or PUT) appends a chunk at Upload-Offset and
+ * returns the new offset, POST .../finalize turns the finished upload into a post, DELETE cancels. A client that lost
+ * its connection asks HEAD for the offset and sends only the rest.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+@RequiredArgsConstructor
+public class UploadController {
+
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String UPLOAD_EXPIRES = "Upload-Expires";
+
+    private final ResumableUploadService resumableUploadService;
+    private final PostUploadService postUploadService;
+    private final PostService postService;
+
+    @PostMapping
+    public ResponseEntity<String> create(
+            Authentication auth,
+            @RequestHeader(UPLOAD_LENGTH) long length,
+            @RequestParam(value = "filename", required = false) String filename) {
+        if (length > resumableUploadService.maxLength()) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body("Upload-Length exceeds " + resumableUploadService.maxLength());
+        }
+        Long userId = auth != null && auth.getPrincipal() instanceof Long ? (Long) auth.getPrincipal() : null;
+        try {
+            ResumableUploadService.Status status = resumableUploadService.create(userId, length, filename);
+            return ResponseEntity.created(URI.create("/api/uploads/" + status.id())).headers(headers(status)).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @RequestMapping(value = "/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> status(@PathVariable String id) {
+        return resumableUploadService.status(id)
+                .map(status -> ResponseEntity.ok().headers(headers(status)).<Void>build())
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Appends the request body at Upload-Offset. 409 with the current Upload-Offset when the offset does not match or
+     * another request is writing to the same upload. The returned offset can be lower than offset plus the chunk
+     * size (see ResumableUploadService); the client continues from it.
+     */
+    @RequestMapping(value = "/{id}", method = {RequestMethod.PATCH, RequestMethod.PUT})
+    public ResponseEntity<String> append(@PathVariable String id,
+                                         @RequestHeader(UPLOAD_OFFSET) long offset,
+                                         HttpServletRequest request) throws IOException {
+        try {
+            return resumableUploadService.append(id, offset, request.getInputStream())
+                    .map(status -> ResponseEntity.noContent().headers(headers(status)).<String>build())
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            return conflict(id, e);
+        }
+    }
+
+    /** Creates the post from a complete upload; 409 while bytes are missing. */
+    @PostMapping("/{id}/finalize")
+    public ResponseEntity<?> finalizeUpload(@PathVariable String id,
+                                            @RequestParam(value = "text", required = false) String text) throws IOException {
+        Optional<ResumableUploadService.Status> status = resumableUploadService.status(id);
+        if (status.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            Post post = postUploadService.create(status.get().userId(), () -> resumableUploadService.complete(id), text);
+            return ResponseEntity.ok(postService.toDto(post));
+        } catch (IllegalStateException e) {
+            return conflict(id, e);
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancel(@PathVariable String id) {
+        return resumableUploadService.cancel(id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private ResponseEntity<String> conflict(String id, IllegalStateException e) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.CONFLICT);
+        resumableUploadService.status(id).ifPresent(status -> response.headers(headers(status)));
+        return response.body(e.getMessage());
+    }
+
+    private static HttpHeaders headers(ResumableUploadService.Status status) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(UPLOAD_OFFSET, String.valueOf(status.offset()));
+        headers.set(UPLOAD_LENGTH, String.valueOf(status.length()));
+        headers.set(UPLOAD_EXPIRES, DateTimeFormatter.RFC_1123_DATE_TIME.format(status.expiresAt()));
+        headers.setCacheControl(CacheControl.noStore());
+        return headers;
+    }
+}
@@ -0,0 +1,21 @@
+package com.srishna.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CacheStatsDto {
+    private String name;
+    /** Approximate number of entries (includes entries of older data generations until they expire). */
+    private long size;
+    private long hits;
+    private long misses;
+    /** hits / (hits + misses); 1.0 when there were no requests. */
+    private double hitRate;
+    private long evictions;
+}
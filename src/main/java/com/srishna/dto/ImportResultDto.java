@@ -0,0 +1,36 @@
+package com.srishna.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/** Outcome of a bulk import: totals and one entry per manifest item. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImportResultDto {
+    private int created;
+    /** Items whose key was already imported (resume). */
+    private int skipped;
+    private int failed;
+    private List<Item> items;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Item {
+        /** 1-based position of the item in the manifest / NDJSON stream. */
+        private int line;
+        private String key;
+        /** created | skipped | failed */
+        private String status;
+        /** The new post, or the post imported earlier under this key. */
+        private Long postId;
+        private String error;
+    }
+}
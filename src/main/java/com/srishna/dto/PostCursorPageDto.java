@@ -0,0 +1,18 @@
+package com.srishna.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PostCursorPageDto {
+    private List<PostDto> items;
+    /** Opaque cursor for the next page (pass as ?cursor=); null when this is the last page. */
+    private String nextCursor;
+}
@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.Instant;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
@@ -15,6 +16,8 @@ public class PostDto {
     private Long id;
     /** Full URL to access the image (signed or public). */
     private String imageUrl;
+    /** Resized JPEG URLs by size (thumb, medium, large); null until the derivatives are ready. */
+    private Map<String, String> imageUrls;
     /** Complete storage path in bucket (e.g. images/uuid.jpg). */
     private String imagePath;
     private String textContent;
@@ -0,0 +1,25 @@
+package com.srishna.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SnapshotDto {
+    /** SHA-256 of the uncompressed DB; pass to POST /api/admin/snapshots/{id}/restore. */
+    private String id;
+    /** When this snapshot was last written or re-used as the base. */
+    private Instant createdAt;
+    /** Stored (gzip) size in bytes. */
+    private Long compressedBytes;
+    /** Uncompressed DB size in bytes. */
+    private Long dbBytes;
+    /** True if the current base in GCS was made from this snapshot. */
+    private boolean current;
+}
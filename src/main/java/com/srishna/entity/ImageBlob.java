@@ -0,0 +1,51 @@
+package com.srishna.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Index of uploaded image content: one row per distinct image (SHA-256 of its bytes) and the object it is stored in,
+ * so a repost reuses the object instead of uploading it again. refCount is the number of posts using the object;
+ * when it drops to 0, releasedAt is set and the object is deleted after a grace period (see ImageBlobService).
+ */
+@Entity
+@Table(name = "image_blobs", indexes = {
+    @Index(name = "idx_image_blob_path", columnList = "objectPath", unique = true),
+    @Index(name = "idx_image_blob_released", columnList = "releasedAt")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageBlob {
+
+    /** Lowercase hex SHA-256 of the image bytes. */
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    /** GCS path of the object (e.g. images/{sha256}.jpg) */
+    @Column(nullable = false)
+    private String objectPath;
+
+    @Column(nullable = false)
+    private Long sizeBytes;
+
+    /** Number of posts whose imagePath is objectPath. */
+    @Column(nullable = false)
+    private Integer refCount;
+
+    /** When refCount last dropped to 0; null while referenced. */
+    private Instant releasedAt;
+
+    @Column(nullable = false, updatable = false)
+    private Instant createdAt;
+
+    @PrePersist
+    void createdAt() {
+        if (this.createdAt == null) this.createdAt = Instant.now();
+    }
+}
@@ -7,7 +7,12 @@ import lombok.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "posts")
+@Table(name = "posts", indexes = {
+    // Keyset feed: WHERE active = 1 ORDER BY created_at DESC, id DESC
+    @Index(name = "idx_post_active_created_id", columnList = "active, createdAt, id"),
+    // Bulk import resume: one post per client item key
+    @Index(name = "idx_post_import_key", columnList = "importKey", unique = true)
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -15,6 +20,9 @@ import java.time.Instant;
 @Builder
 public class Post {
 
+    /** Resized copies of the image (images/derived/...): PENDING until the pipeline ran; null for older posts. */
+    public enum DerivativeStatus { PENDING, READY, FAILED }
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -40,11 +48,27 @@ public class Post {
     @Builder.Default
     private Boolean active = true;
 
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private DerivativeStatus derivativeStatus;
+
+    /** Client key of the bulk import item this post came from (null for regular uploads). */
+    @Column(length = 200)
+    private String importKey;
+
     @Column(nullable = false, updatable = false)
     private Instant createdAt;
 
+    /** Last change (e.g. activate/deactivate); null if never changed. Used as the post's HTTP Last-Modified. */
+    private Instant updatedAt;
+
     @PrePersist
     void createdAt() {
         if (this.createdAt == null) this.createdAt = Instant.now();
     }
+
+    @PreUpdate
+    void updatedAt() {
+        this.updatedAt = Instant.now();
+    }
 }
@@ -0,0 +1,20 @@
+package com.srishna.repository;
+
+import com.srishna.entity.ImageBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    Optional<ImageBlob> findByObjectPath(String objectPath);
+
+    /** Unreferenced blobs released before {@code before}, oldest first. */
+    @Query("SELECT b FROM ImageBlob b WHERE b.refCount = 0 AND b.releasedAt < :before ORDER BY b.releasedAt")
+    List<ImageBlob> findReleasedBefore(@Param("before") Instant before, Pageable pageable);
+}
@@ -7,18 +7,80 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface PostRepository extends JpaRepository<Post, Long> {
 
     Page<Post> findAllByOrderByCreatedAtDesc(Pageable pageable);
 
+    /** Image path and derivative status of a post, without loading its text. */
+    interface ImageRef {
+        String getImagePath();
+
+        Post.DerivativeStatus getDerivativeStatus();
+    }
+
+    Optional<ImageRef> findImageRefById(Long id);
+
+    /** Posts whose image derivatives are still to be made (pending, or older posts never processed), newest first. */
+    @Query("SELECT p.id FROM Post p WHERE p.derivativeStatus IS NULL OR p.derivativeStatus = :pending "
+            + "ORDER BY p.createdAt DESC")
+    List<Long> findIdsWithoutDerivatives(@Param("pending") Post.DerivativeStatus pending, Pageable pageable);
+
+    /** True if another post sharing this image (deduplicated upload) already has its derivatives. */
+    boolean existsByImagePathAndDerivativeStatus(String imagePath, Post.DerivativeStatus derivativeStatus);
+
+    /** [importKey, id] of posts already imported under the given keys. */
+    @Query("SELECT p.importKey, p.id FROM Post p WHERE p.importKey IN :keys")
+    List<Object[]> findIdsByImportKeys(@Param("keys") Collection<String> keys);
+
+    /** [id, imagePath, derivativeStatus] of the given posts that are active. */
+    @Query("SELECT p.id, p.imagePath, p.derivativeStatus FROM Post p WHERE p.active = true AND p.id IN :ids")
+    List<Object[]> findActiveImagePaths(@Param("ids") Collection<Long> ids);
+
+    /** [id, imagePath, derivativeStatus] of the newest active posts (first feed page). */
+    @Query("SELECT p.id, p.imagePath, p.derivativeStatus FROM Post p WHERE p.active = true ORDER BY p.createdAt DESC")
+    List<Object[]> findNewestActiveImagePaths(Pageable pageable);
+
     List<Post> findAllByOrderByCreatedAtDesc();
 
     Page<Post> findAllByActiveTrueOrderByCreatedAtDesc(Pageable pageable);
 
     List<Post> findAllByActiveTrueOrderByCreatedAtDesc();
 
+    /** Keyset page of active posts after {@code (createdAt, id)}, newest first; no count query. */
+    @Query("SELECT p FROM Post p WHERE p.active = true AND (p.createdAt < :createdAt "
+            + "OR (p.createdAt = :createdAt AND p.id < :id)) ORDER BY p.createdAt DESC, p.id DESC")
+    List<Post> findActiveAfter(@Param("createdAt") Instant createdAt, @Param("id") Long id, Pageable pageable);
+
+    /** Keyset page of FTS5 matches, newest first; {@code createdAtMillis} is the stored epoch-millis value. */
+    @Query(value = "SELECT p.* FROM posts_fts JOIN posts p ON p.id = posts_fts.rowid "
+            + "WHERE posts_fts MATCH :match AND p.active = 1 "
+            + "AND (p.created_at < :createdAtMillis OR (p.created_at = :createdAtMillis AND p.id < :id)) "
+            + "ORDER BY p.created_at DESC, p.id DESC LIMIT :limit",
+            nativeQuery = true)
+    List<Post> searchActiveByFtsAfter(@Param("match") String match, @Param("createdAtMillis") long createdAtMillis,
+                                      @Param("id") long id, @Param("limit") int limit);
+
+    /** Keyset page of LIKE matches; fallback when the FTS5 index is unavailable. */
+    @Query("SELECT p FROM Post p WHERE p.active = true AND LOWER(p.textContent) LIKE LOWER(CONCAT('%', :q, '%')) "
+            + "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) "
+            + "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Post> searchActiveByTextAfter(@Param("q") String query, @Param("createdAt") Instant createdAt,
+                                       @Param("id") Long id, Pageable pageable);
+
+    /** Ranked full-text search over the posts_fts index (see PostSearchIndex); {@code match} is an FTS5 expression. */
+    @Query(value = "SELECT p.* FROM posts_fts JOIN posts p ON p.id = posts_fts.rowid "
+            + "WHERE posts_fts MATCH :match AND p.active = 1 ORDER BY bm25(posts_fts), p.created_at DESC",
+            countQuery = "SELECT count(*) FROM posts_fts JOIN posts p ON p.id = posts_fts.rowid "
+                    + "WHERE posts_fts MATCH :match AND p.active = 1",
+            nativeQuery = true)
+    Page<Post> searchActiveByFts(@Param("match") String match, Pageable pageable);
+
+    /** Substring scan; fallback when the FTS5 index is unavailable. */
     @Query("SELECT p FROM Post p WHERE p.active = true AND LOWER(p.textContent) LIKE LOWER(CONCAT('%', :q, '%')) ORDER BY p.createdAt DESC")
     Page<Post> searchActiveByText(@Param("q") String query, Pageable pageable);
 
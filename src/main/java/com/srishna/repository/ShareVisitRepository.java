@@ -1,11 +1,22 @@
 package com.srishna.repository;
 
 import com.srishna.entity.ShareVisit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
 
 public interface ShareVisitRepository extends JpaRepository<ShareVisit, Long> {
 
     long countByShareRecordId(Long shareRecordId);
 
     void deleteByShareRecordId(Long shareRecordId);
+
+    /** [postId, visit count] of the posts whose share links were opened most since {@code since}, most visited first. */
+    @Query("SELECT r.postId, count(v) FROM ShareVisit v JOIN ShareRecord r ON r.id = v.shareRecordId "
+            + "WHERE v.visitedAt >= :since GROUP BY r.postId ORDER BY count(v) DESC")
+    List<Object[]> countVisitsByPostSince(@Param("since") Instant since, Pageable pageable);
 }
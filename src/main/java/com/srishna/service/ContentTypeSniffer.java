@@ -0,0 +1,41 @@
+package com.srishna.service;
+
+/**
+ * Detects the image type from the first bytes of a file (magic numbers), so the stored Content-Type matches the
+ * content rather than what the client claimed. Covers the formats browsers display; anything else is unknown (null).
+ */
+final class ContentTypeSniffer {
+
+    /** Bytes needed to recognise every supported format. */
+    static final int HEAD_BYTES = 12;
+
+    private ContentTypeSniffer() {
+    }
+
+    /** Content type of data starting with {@code head[0..length)}, or null if not recognised. */
+    static String sniff(byte[] head, int length) {
+        if (startsWith(head, length, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(head, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return "image/png";
+        if (startsWith(head, length, 0, 'G', 'I', 'F', '8')) return "image/gif";
+        if (startsWith(head, length, 0, 'R', 'I', 'F', 'F') && startsWith(head, length, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(head, length, 4, 'f', 't', 'y', 'p')) {
+            if (startsWith(head, length, 8, 'a', 'v', 'i', 'f')) return "image/avif";
+            if (startsWith(head, length, 8, 'h', 'e', 'i', 'c') || startsWith(head, length, 8, 'h', 'e', 'i', 'x')
+                    || startsWith(head, length, 8, 'm', 'i', 'f', '1')) {
+                return "image/heic";
+            }
+        }
+        if (startsWith(head, length, 0, 'B', 'M')) return "image/bmp";
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int length, int offset, int... magic) {
+        if (length < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package com.srishna.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global stamp of the post data. Cached feed entries include it in their key, so bumping it after a post write
+ * (or a DB swap) makes every older entry unreachable in O(1); they age out through the cache's TTL and size bound.
+ * The bump happens after commit, so a reader that sees the new generation also sees the new data.
+ */
+@Component("dataGeneration")
+public class DataGeneration {
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public long current() {
+        return generation.get();
+    }
+
+    /** Bump after the current transaction commits (immediately if there is none). */
+    public void bumpAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    generation.incrementAndGet();
+                }
+            });
+        } else {
+            generation.incrementAndGet();
+        }
+    }
+
+    /** The DB file was swapped under the app; everything cached describes the old file. */
+    @EventListener
+    public void onDbSwapped(DbSwappedEvent event) {
+        generation.incrementAndGet();
+    }
+}
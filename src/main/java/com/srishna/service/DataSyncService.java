@@ -1,29 +1,77 @@
 package com.srishna.service;
 
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
+import com.srishna.config.HotSwapDataSource;
+import com.srishna.config.SchemaUpdater;
+import com.srishna.dto.SnapshotDto;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
 
 /**
  * Syncs the SQLite DB file with the GCS bucket (gs://prod_srishna_web/data/srishna.db).
  * On startup the DB is loaded from GCS via {@link com.srishna.config.GcpDbRestoreInitializer}.
- * Backup uploads the current DB to GCS.
+ * Backup takes a consistent snapshot with SQLite's online backup API and streams it to GCS,
+ * so heap use does not grow with the DB and a concurrent write can never produce a torn upload.
+ * <p>
+ * In incremental mode (gcp.db-sync.mode=incremental) routine syncs upload only the pages that changed
+ * since the last sync as numbered segments next to the base (see {@link DbReplica}); a new compacted
+ * base is written on the first sync of the process and whenever the segments grow too large.
+ * <p>
+ * Every base is kept as a gzip-compressed, content-addressed snapshot under gcp.db-snapshots-prefix
+ * (a ring of gcp.db-snapshots.retention generations) and can be restored from {@link #restoreSnapshot}.
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class DataSyncService {
 
+    /** Every valid SQLite database file starts with this 16-byte header. */
+    private static final byte[] SQLITE_HEADER = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+    /** Resumable upload chunk size (must be a multiple of 256 KiB); bounds the writer's buffer. */
+    private static final int UPLOAD_CHUNK_BYTES = 2 * 1024 * 1024;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    private static final String SNAPSHOT_SUFFIX = ".db.gz";
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9a-f]{64}");
+    /** Blob metadata: when a snapshot was last written or re-used (drives retention), uncompressed size, base content hash. */
+    private static final String SNAPSHOT_AT_KEY = "snapshot-at";
+    private static final String DB_BYTES_KEY = "db-bytes";
+    private static final String SHA256_KEY = "sha256";
+
     private final Storage storage;
+    private final HotSwapDataSource dataSource;
+    private final SchemaUpdater schemaUpdater;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Value("${gcp.bucket-name}")
     private String bucketName;
@@ -31,40 +79,368 @@ public class DataSyncService {
     @Value("${gcp.db-object-name:data/srishna.db}")
     private String dbObjectName;
 
+    @Value("${gcp.db-segments-prefix:data/srishna.db-segments/}")
+    private String segmentsPrefix;
+
+    @Value("${gcp.db-snapshots-prefix:data/snapshots/}")
+    private String snapshotsPrefix;
+
+    @Value("${gcp.db-snapshots.retention:10}")
+    private int snapshotRetention;
+
+    @Value("${gcp.db-sync.mode:incremental}")
+    private String syncMode;
+
+    @Value("${gcp.db-sync.compact-after-segments:200}")
+    private int compactAfterSegments;
+
+    @Value("${gcp.db-sync.compact-ratio:0.5}")
+    private double compactRatio;
+
+    @Value("${gcp.db-restore.parallelism:4}")
+    private int restoreParallelism;
+
+    @Value("${app.db-swap.drain-timeout-ms:10000}")
+    private long swapDrainTimeoutMs;
+
     @Value("${app.db-path}")
     private String dbPath;
 
+    /** Replication state, guarded by this. A null epoch means the next sync writes a new base. */
+    private String epoch;
+    private String baseSha;
+    private byte[] pageHashes;
+    private int pageSize;
+    private long nextSeq;
+    private long baseBytes;
+    private long segmentBytes;
+
     /**
-     * Uploads the current SQLite DB file to GCS (gs://bucket/data/srishna.db).
+     * Routine sync after writes: ships a page-delta segment in incremental mode, otherwise a full snapshot.
      */
-    public void uploadDbToGcs() throws IOException {
+    public synchronized void syncToGcs() throws IOException {
+        if (!"incremental".equalsIgnoreCase(syncMode)) {
+            uploadDbToGcs();
+            return;
+        }
+        Path snapshot = createSnapshot(dbFile());
+        try {
+            if (needsBase(snapshot)) {
+                uploadBase(snapshot);
+            } else {
+                uploadSegment(snapshot);
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    /**
+     * Uploads a consistent snapshot of the current SQLite DB to GCS (gs://bucket/data/srishna.db).
+     * The upload becomes the new replication base; segments of the previous base are removed.
+     */
+    public synchronized void uploadDbToGcs() throws IOException {
+        Path snapshot = createSnapshot(dbFile());
+        try {
+            uploadBase(snapshot);
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private Path dbFile() throws IOException {
         Path path = Paths.get(dbPath).toAbsolutePath().normalize();
         if (!Files.isRegularFile(path)) {
             throw new IOException("DB file not found: " + path);
         }
-        byte[] bytes = Files.readAllBytes(path);
-        BlobId blobId = BlobId.of(bucketName, dbObjectName);
-        storage.create(com.google.cloud.storage.BlobInfo.newBuilder(blobId)
-                .setContentType("application/x-sqlite3")
-                .build(), bytes);
-        log.info("Uploaded DB to gs://{}/{}", bucketName, dbObjectName);
+        return path;
+    }
+
+    private boolean needsBase(Path snapshot) throws IOException {
+        if (epoch == null || DbReplica.pageSize(snapshot) != pageSize) return true;
+        return nextSeq > compactAfterSegments || segmentBytes >= baseBytes * compactRatio;
+    }
+
+    /**
+     * Makes {@code snapshot} the new replication base. The snapshot is stored gzip-compressed under its SHA-256 in the
+     * snapshots prefix (skipped if that content is already there) and server-side copied to the base object with a new
+     * epoch, so the bytes leave the instance at most once. Nothing is uploaded when the content equals the current base.
+     */
+    private void uploadBase(Path snapshot) throws IOException {
+        String sha = DbReplica.sha256Hex(snapshot);
+        if (epoch != null && nextSeq == 1 && sha.equals(baseSha)) {
+            log.info("DB unchanged since last base (sha256 {}), skipping upload", sha);
+            return;
+        }
+        int newPageSize = DbReplica.pageSize(snapshot);
+        byte[] hashes = DbReplica.hashPages(snapshot, newPageSize);
+        Blob stored = storeSnapshot(snapshot, sha);
+        String newEpoch = String.valueOf(System.currentTimeMillis());
+        copyToBase(stored, sha, newEpoch);
+        epoch = newEpoch;
+        baseSha = sha;
+        pageHashes = hashes;
+        pageSize = newPageSize;
+        nextSeq = 1;
+        baseBytes = stored.getSize();
+        segmentBytes = 0;
+        log.info("Uploaded DB to gs://{}/{} ({} bytes compressed, epoch {}, sha256 {})", bucketName, dbObjectName, baseBytes, newEpoch, sha);
+        deleteStaleSegments(newEpoch);
+        pruneSnapshots();
+    }
+
+    /** Content-addressed, compressed copy of a snapshot; re-used (and marked recent) when the same content exists. */
+    private Blob storeSnapshot(Path snapshot, String sha) throws IOException {
+        BlobId id = BlobId.of(bucketName, snapshotObjectName(sha));
+        Map<String, String> metadata = Map.of(
+                SNAPSHOT_AT_KEY, String.valueOf(System.currentTimeMillis()),
+                DB_BYTES_KEY, String.valueOf(Files.size(snapshot)));
+        Blob existing = storage.get(id);
+        if (existing != null) {
+            log.debug("Snapshot {} already stored, skipping upload", sha);
+            return existing.toBuilder().setMetadata(metadata).build().update();
+        }
+        Path gz = Files.createTempFile(snapshot.getParent(), "db-", ".gz");
+        try {
+            DbReplica.gzip(snapshot, gz);
+            uploadFile(gz, BlobInfo.newBuilder(id)
+                    .setContentType("application/gzip")
+                    .setMetadata(metadata)
+                    .build());
+        } finally {
+            Files.deleteIfExists(gz);
+        }
+        return storage.get(id);
+    }
+
+    private void copyToBase(Blob snapshot, String sha, String newEpoch) {
+        BlobInfo target = BlobInfo.newBuilder(BlobId.of(bucketName, dbObjectName))
+                .setContentType("application/gzip")
+                .setMetadata(Map.of(DbReplica.EPOCH_METADATA_KEY, newEpoch, SHA256_KEY, sha))
+                .build();
+        storage.copy(Storage.CopyRequest.newBuilder()
+                .setSource(snapshot.getBlobId())
+                .setTarget(target)
+                .build()).getResult();
+    }
+
+    /** Keeps the newest gcp.db-snapshots.retention snapshots (by last use) and deletes the rest. */
+    private void pruneSnapshots() {
+        try {
+            List<Blob> snapshots = listSnapshotBlobs();
+            if (snapshots.size() <= snapshotRetention) return;
+            List<BlobId> expired = snapshots.subList(snapshotRetention, snapshots.size()).stream()
+                    .map(Blob::getBlobId)
+                    .toList();
+            storage.delete(expired);
+            log.debug("Deleted {} old DB snapshots", expired.size());
+        } catch (RuntimeException e) {
+            log.warn("Failed to prune DB snapshots: {}", e.getMessage());
+        }
+    }
+
+    /** Stored snapshots, most recently used first. */
+    private List<Blob> listSnapshotBlobs() {
+        List<Blob> snapshots = new ArrayList<>();
+        for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(snapshotsPrefix)).iterateAll()) {
+            if (blob.getName().endsWith(SNAPSHOT_SUFFIX)) snapshots.add(blob);
+        }
+        snapshots.sort(Comparator.comparingLong(DataSyncService::snapshotAt).reversed());
+        return snapshots;
+    }
+
+    private static long snapshotAt(Blob blob) {
+        Map<String, String> metadata = blob.getMetadata();
+        String at = metadata != null ? metadata.get(SNAPSHOT_AT_KEY) : null;
+        if (at != null) return Long.parseLong(at);
+        OffsetDateTime created = blob.getCreateTimeOffsetDateTime();
+        return created != null ? created.toInstant().toEpochMilli() : 0L;
+    }
+
+    private String snapshotObjectName(String sha) {
+        return snapshotsPrefix + sha + SNAPSHOT_SUFFIX;
+    }
+
+    /** Stored DB snapshots (newest first), with the one the current base was made from marked. */
+    public List<SnapshotDto> listSnapshots() {
+        Blob base = storage.get(BlobId.of(bucketName, dbObjectName));
+        String currentSha = base != null && base.getMetadata() != null ? base.getMetadata().get(SHA256_KEY) : null;
+        return listSnapshotBlobs().stream()
+                .map(blob -> {
+                    String id = blob.getName().substring(snapshotsPrefix.length(), blob.getName().length() - SNAPSHOT_SUFFIX.length());
+                    Map<String, String> metadata = blob.getMetadata() != null ? blob.getMetadata() : Map.of();
+                    return SnapshotDto.builder()
+                            .id(id)
+                            .createdAt(Instant.ofEpochMilli(snapshotAt(blob)))
+                            .compressedBytes(blob.getSize())
+                            .dbBytes(metadata.containsKey(DB_BYTES_KEY) ? Long.parseLong(metadata.get(DB_BYTES_KEY)) : null)
+                            .current(id.equals(currentSha))
+                            .build();
+                })
+                .toList();
     }
 
     /**
-     * Downloads the DB from GCS to the local path. Restart the application after calling to use it.
+     * Point-in-time restore: makes the chosen snapshot the base (new epoch, so segments of the old base are dropped)
+     * and hot-swaps it in locally. Returns false when no snapshot has that id.
      */
-    public void downloadDbFromGcs() throws IOException {
-        BlobId blobId = BlobId.of(bucketName, dbObjectName);
-        Blob blob = storage.get(blobId);
-        if (blob == null || !blob.exists()) {
-            throw new IOException("DB not found in GCS: gs://" + bucketName + "/" + dbObjectName);
+    public synchronized boolean restoreSnapshot(String id) throws IOException {
+        if (!SNAPSHOT_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid snapshot id: " + id);
         }
-        byte[] bytes = blob.getContent();
+        Blob snapshot = storage.get(BlobId.of(bucketName, snapshotObjectName(id)));
+        if (snapshot == null) return false;
+        String newEpoch = String.valueOf(System.currentTimeMillis());
+        copyToBase(snapshot, id, newEpoch);
+        deleteStaleSegments(newEpoch);
+        log.info("Restored DB snapshot {} as gs://{}/{}", id, bucketName, dbObjectName);
+        revertFromGcs();
+        return true;
+    }
+
+    private void uploadSegment(Path snapshot) throws IOException {
+        Path segment = Files.createTempFile(snapshot.getParent(), "db-", ".seg");
+        try {
+            long previousPages = pageHashes.length / 16;
+            DbReplica.Delta delta = DbReplica.diff(snapshot, pageSize, pageHashes, segment);
+            if (delta.changedPages() == 0 && delta.pageCount() == previousPages) {
+                log.debug("DB unchanged since last sync, nothing to upload");
+                return;
+            }
+            String name = DbReplica.segmentName(segmentsPrefix, epoch, nextSeq);
+            long bytes = uploadFile(segment, BlobInfo.newBuilder(BlobId.of(bucketName, name))
+                    .setContentType("application/octet-stream")
+                    .build());
+            pageHashes = delta.pageHashes();
+            nextSeq++;
+            segmentBytes += bytes;
+            log.info("Uploaded DB segment gs://{}/{} ({} pages, {} bytes)", bucketName, name, delta.changedPages(), bytes);
+        } finally {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    /** Removes segments that do not belong to the current base (older epochs, leftovers of a crash). */
+    private void deleteStaleSegments(String currentEpoch) {
+        String keep = DbReplica.epochPrefix(segmentsPrefix, currentEpoch);
+        try {
+            List<BlobId> stale = new ArrayList<>();
+            for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(segmentsPrefix)).iterateAll()) {
+                if (!blob.getName().startsWith(keep)) stale.add(blob.getBlobId());
+            }
+            if (!stale.isEmpty()) {
+                storage.delete(stale);
+                log.debug("Deleted {} stale DB segments", stale.size());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to delete stale DB segments: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the live DB into a temp file next to it using SQLite's online backup API. The backup
+     * restarts by itself if another connection writes mid-copy, so the result is always a
+     * point-in-time image of a committed state.
+     */
+    Path createSnapshot(Path dbFile) throws IOException {
+        Path snapshot = Files.createTempFile(dbFile.getParent(), dbFile.getFileName() + ".", ".snapshot");
+        try {
+            String target = snapshot.toString();
+            if (target.indexOf('"') >= 0) {
+                throw new IOException("Unsupported snapshot path: " + target);
+            }
+            try (Connection con = dataSource.getConnection()) {
+                // Read-only: the backup runs on the reader pool and never holds up the single writer.
+                con.setReadOnly(true);
+                try (Statement st = con.createStatement()) {
+                    st.executeUpdate("backup to \"" + target + "\"");
+                }
+            } catch (SQLException e) {
+                throw new IOException("DB snapshot failed: " + e.getMessage(), e);
+            }
+            verifySqliteHeader(snapshot);
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(snapshot);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams a local file to GCS through a resumable upload with a fixed-size buffer. The CRC32C is
+     * computed up front and sent as a precondition so GCS rejects a corrupted transfer. The channel is
+     * only closed (which commits the object) after the whole file was written.
+     */
+    long uploadFile(Path file, BlobInfo info) throws IOException {
+        BlobInfo checked = info.toBuilder().setCrc32cFromHexString(crc32cHex(file)).build();
+        WriteChannel writer = storage.writer(checked, Storage.BlobWriteOption.crc32cMatch());
+        writer.setChunkSize(UPLOAD_CHUNK_BYTES);
+        long total = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    total += writer.write(buf);
+                }
+                buf.clear();
+            }
+        }
+        writer.close();
+        return total;
+    }
+
+    private static String crc32cHex(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+        }
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static void verifySqliteHeader(Path file) throws IOException {
+        byte[] header = new byte[SQLITE_HEADER.length];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.readNBytes(header, 0, header.length) != header.length || !Arrays.equals(header, SQLITE_HEADER)) {
+                throw new IOException("Snapshot is not a valid SQLite database: " + file);
+            }
+        }
+    }
+
+    /**
+     * Hot revert: rebuilds the DB from GCS (base plus segments) into a side file, updates it to the current schema,
+     * then swaps it in under the live DataSource. Requests stall only while open connections drain and the file is moved; anything caching DB
+     * data is invalidated through {@link DbSwappedEvent}.
+     */
+    public synchronized void revertFromGcs() throws IOException {
         Path path = Paths.get(dbPath).toAbsolutePath().normalize();
-        if (path.getParent() != null) {
-            Files.createDirectories(path.getParent());
+        Path side = Path.of(path + ".incoming");
+        Path previous = Path.of(path + ".previous");
+        try {
+            if (DbReplica.restore(storage, bucketName, dbObjectName, segmentsPrefix, side, restoreParallelism) == null) {
+                throw new IOException("DB not found in GCS: gs://" + bucketName + "/" + dbObjectName);
+            }
+            // ddl-auto only runs at startup; a base or snapshot from an older version may lack newer columns
+            schemaUpdater.update(side);
+            // The current file is kept aside until the new one opens, so a bad download can be rolled back.
+            dataSource.swap(() -> {
+                Files.move(path, previous, StandardCopyOption.REPLACE_EXISTING);
+                DbReplica.moveIntoPlace(side, path);
+            }, () -> {
+                if (Files.exists(previous)) DbReplica.moveIntoPlace(previous, path);
+            }, Duration.ofMillis(swapDrainTimeoutMs));
+        } finally {
+            Files.deleteIfExists(side);
+            Files.deleteIfExists(previous);
         }
-        Files.write(path, bytes);
-        log.info("Downloaded DB from gs://{}/{} to {}", bucketName, dbObjectName, path);
+        // Local file no longer matches the hashes of the last shipped state; start a new base on next sync.
+        epoch = null;
+        eventPublisher.publishEvent(new DbSwappedEvent("gs://" + bucketName + "/" + dbObjectName));
+        log.info("Reverted DB from gs://{}/{} to {} without restart", bucketName, dbObjectName, path);
     }
 }
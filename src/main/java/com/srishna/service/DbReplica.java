@@ -0,0 +1,447 @@
+package com.srishna.service;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Incremental DB replica in GCS: a base snapshot plus numbered page-delta segments. Each segment holds only
+ * the pages that changed since the previous one and the new page count, so upload size follows the size of
+ * the change. Shared by {@link DataSyncService} (writing) and {@link com.srishna.config.GcpDbRestoreInitializer}
+ * (restoring before the DataSource exists), so it has no Spring dependencies.
+ * <p>
+ * Segment layout (gzip-compressed): magic "SRSSEG01", int pageSize, long pageCount, int changedPages, then per page
+ * int pgno (1-based) + page bytes. Base snapshots are gzip-compressed too; raw ones from older uploads still restore.
+ */
+public final class DbReplica {
+
+    /** Blob metadata key on the base object naming the epoch its segments belong to. */
+    public static final String EPOCH_METADATA_KEY = "replication-epoch";
+
+    private static final byte[] MAGIC = "SRSSEG01".getBytes(StandardCharsets.US_ASCII);
+    private static final int HASH_BYTES = 16;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    /** Size of each ranged read during restore. */
+    private static final long RANGE_BYTES = 8L * 1024 * 1024;
+    private static final String STATE_SUFFIX = ".gcs-state";
+
+    private DbReplica() {
+    }
+
+    /** Result of diffing a snapshot against the page hashes of the last shipped state. */
+    public record Delta(int pageSize, long pageCount, int changedPages, byte[] pageHashes) {
+    }
+
+    /** Page size from the SQLite header (offset 16, big-endian; 1 means 65536). */
+    public static int pageSize(Path db) throws IOException {
+        try (FileChannel ch = FileChannel.open(db, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(2);
+            if (ch.read(buf, 16) != 2) throw new IOException("Not a SQLite database: " + db);
+            int size = buf.flip().getShort() & 0xFFFF;
+            return size == 1 ? 65536 : size;
+        }
+    }
+
+    /** One MD5 per page, concatenated. Used to detect changed pages without keeping the previous snapshot on disk. */
+    public static byte[] hashPages(Path db, int pageSize) throws IOException {
+        return diff(db, pageSize, null, null).pageHashes();
+    }
+
+    /**
+     * Writes the pages of {@code snapshot} whose hash differs from {@code previousHashes} (or that are new) to {@code out}
+     * and returns the hashes of the snapshot. Nothing is written when {@code out} is null.
+     */
+    public static Delta diff(Path snapshot, int pageSize, byte[] previousHashes, Path out) throws IOException {
+        long size = Files.size(snapshot);
+        if (size % pageSize != 0) throw new IOException("DB size " + size + " is not a multiple of page size " + pageSize);
+        long pageCount = size / pageSize;
+        byte[] hashes = new byte[Math.toIntExact(pageCount * HASH_BYTES)];
+        MessageDigest md5 = md5();
+        List<Long> changed = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer page = ByteBuffer.allocate(pageSize);
+            for (long pgno = 1; pgno <= pageCount; pgno++) {
+                readPage(in, page, pgno, pageSize);
+                md5.update(page.array(), 0, pageSize);
+                int off = (int) ((pgno - 1) * HASH_BYTES);
+                md5.digest(hashes, off, HASH_BYTES);
+                if (previousHashes == null || off + HASH_BYTES > previousHashes.length
+                        || !Arrays.equals(hashes, off, off + HASH_BYTES, previousHashes, off, off + HASH_BYTES)) {
+                    changed.add(pgno);
+                }
+            }
+            if (out != null) {
+                try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                        new GZIPOutputStream(Files.newOutputStream(out), COPY_BUFFER_BYTES), COPY_BUFFER_BYTES))) {
+                    dos.write(MAGIC);
+                    dos.writeInt(pageSize);
+                    dos.writeLong(pageCount);
+                    dos.writeInt(changed.size());
+                    for (long pgno : changed) {
+                        readPage(in, page, pgno, pageSize);
+                        dos.writeInt((int) pgno);
+                        dos.write(page.array(), 0, pageSize);
+                    }
+                }
+            }
+        } catch (java.security.DigestException e) {
+            throw new IOException(e);
+        }
+        return new Delta(pageSize, pageCount, changed.size(), hashes);
+    }
+
+    /**
+     * Applies one segment (gzip-compressed or raw) to a local DB file: writes each page in place and truncates to the
+     * segment's page count.
+     */
+    public static void apply(InputStream segment, Path db) throws IOException {
+        DataInputStream in = new DataInputStream(maybeGunzip(segment));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a DB segment");
+        int pageSize = in.readInt();
+        long pageCount = in.readLong();
+        int pages = in.readInt();
+        if (Files.size(db) > 0 && pageSize(db) != pageSize) {
+            throw new IOException("Segment page size " + pageSize + " does not match DB page size " + pageSize(db));
+        }
+        try (FileChannel ch = FileChannel.open(db, StandardOpenOption.WRITE)) {
+            byte[] page = new byte[pageSize];
+            for (int i = 0; i < pages; i++) {
+                long pgno = in.readInt() & 0xFFFFFFFFL;
+                in.readFully(page);
+                ByteBuffer buf = ByteBuffer.wrap(page);
+                long pos = (pgno - 1) * pageSize;
+                while (buf.hasRemaining()) {
+                    pos += ch.write(buf, pos);
+                }
+            }
+            ch.truncate(pageCount * pageSize);
+        }
+    }
+
+    /** Object name of segment {@code seq} in {@code epoch}; zero-padded so listing order is apply order. */
+    public static String segmentName(String segmentsPrefix, String epoch, long seq) {
+        return epochPrefix(segmentsPrefix, epoch) + String.format("%012d.seg", seq);
+    }
+
+    public static String epochPrefix(String segmentsPrefix, String epoch) {
+        return segmentsPrefix + epoch + "/";
+    }
+
+    /** Epoch recorded on the base object, or null for a plain (non-replicated) upload. */
+    public static String epochOf(Blob base) {
+        Map<String, String> metadata = base.getMetadata();
+        return metadata != null ? metadata.get(EPOCH_METADATA_KEY) : null;
+    }
+
+    /**
+     * Segments of the base's epoch in apply order. Stops at the first gap, so a listing that races with cleanup of
+     * an old epoch yields an older but consistent state.
+     */
+    public static List<Blob> listSegments(Storage storage, Blob base, String segmentsPrefix) {
+        String epoch = epochOf(base);
+        if (epoch == null) return List.of();
+        List<Blob> all = new ArrayList<>();
+        storage.list(base.getBucket(), Storage.BlobListOption.prefix(epochPrefix(segmentsPrefix, epoch)))
+                .iterateAll().forEach(all::add);
+        all.sort((a, b) -> a.getName().compareTo(b.getName()));
+        List<Blob> segments = new ArrayList<>();
+        for (Blob segment : all) {
+            if (!segment.getName().equals(segmentName(segmentsPrefix, epoch, segments.size() + 1))) break;
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    /** Streams each segment onto {@code db} in order, verifying its CRC32C against the object metadata. */
+    public static void applySegments(Storage storage, List<Blob> segments, Path db) throws IOException {
+        for (Blob segment : segments) {
+            CRC32C crc = new CRC32C();
+            try (ReadChannel reader = storage.reader(BlobId.of(segment.getBucket(), segment.getName(), segment.getGeneration()));
+                 InputStream in = new CheckedInputStream(Channels.newInputStream(reader), crc)) {
+                apply(in, db);
+                in.transferTo(OutputStream.nullOutputStream());
+            } catch (EOFException e) {
+                throw new IOException("Truncated DB segment " + segment.getName(), e);
+            }
+            verifyCrc32c(segment, crc.getValue());
+        }
+    }
+
+    /** Outcome of {@link #restore}: which base generation and how many segments the local file now holds. */
+    public record RestoreResult(long generation, int segments, long bytes, boolean skipped) {
+    }
+
+    /**
+     * Rebuilds {@code target} from the base object plus its segments. The base is fetched with parallel ranged reads
+     * into a temp file next to the target, checked against the object's CRC32C/MD5 and decompressed if it is a gzip
+     * snapshot; segments are replayed on top
+     * and the file is moved into place atomically, together with removing stale WAL/SHM files that would otherwise
+     * be replayed over it. Skips the download when a marker shows the local file is still exactly the restored state
+     * of the same base generation and segments. Returns null when there is nothing in GCS.
+     */
+    public static RestoreResult restore(Storage storage, String bucket, String baseObject, String segmentsPrefix,
+                                        Path target, int parallelism) throws IOException {
+        Blob base = storage.get(BlobId.of(bucket, baseObject));
+        if (base == null || !base.exists() || base.getSize() == null || base.getSize() == 0) return null;
+        List<Blob> segments = listSegments(storage, base, segmentsPrefix);
+        String state = remoteState(base, segments);
+        if (localStateMatches(target, state)) {
+            return new RestoreResult(base.getGeneration(), segments.size(), 0, true);
+        }
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path dir = target.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, target.getFileName() + ".", ".restore");
+        Path raw = null;
+        try {
+            downloadRanges(storage, base, tmp, parallelism);
+            verifyChecksums(base, tmp);
+            Path db = tmp;
+            if (isGzip(tmp)) {
+                raw = Files.createTempFile(dir, target.getFileName() + ".", ".restore");
+                gunzip(tmp, raw);
+                db = raw;
+            }
+            applySegments(storage, segments, db);
+            moveIntoPlace(db, target);
+            writeLocalState(target, state);
+            return new RestoreResult(base.getGeneration(), segments.size(), base.getSize(), false);
+        } finally {
+            Files.deleteIfExists(tmp);
+            if (raw != null) Files.deleteIfExists(raw);
+        }
+    }
+
+    /**
+     * Downloads a blob into {@code target} as fixed-size byte ranges fetched concurrently, each written at its own
+     * offset. All reads are pinned to the blob's generation so an upload that lands mid-restore cannot mix versions.
+     */
+    public static void downloadRanges(Storage storage, Blob blob, Path target, int parallelism) throws IOException {
+        long size = blob.getSize();
+        BlobId pinned = BlobId.of(blob.getBucket(), blob.getName(), blob.getGeneration());
+        int ranges = (int) Math.max(1, (size + RANGE_BYTES - 1) / RANGE_BYTES);
+        int threads = Math.max(1, Math.min(parallelism, ranges));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "db-restore");
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < ranges; i++) {
+                long start = i * RANGE_BYTES;
+                long end = Math.min(size, start + RANGE_BYTES);
+                futures.add(pool.submit(() -> {
+                    readRange(storage, pinned, start, end, out);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException("Ranged download failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ranged download interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void readRange(Storage storage, BlobId blobId, long start, long end, FileChannel out) throws IOException {
+        try (ReadChannel reader = storage.reader(blobId)) {
+            reader.setChunkSize((int) Math.min(RANGE_BYTES, 2 * 1024 * 1024));
+            reader.seek(start);
+            reader.limit(end);
+            ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            long pos = start;
+            while (pos < end) {
+                buf.clear();
+                if (reader.read(buf) < 0) throw new EOFException("Range " + start + "-" + end + " ended at " + pos);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    pos += out.write(buf, pos);
+                }
+            }
+        }
+    }
+
+    /** Compares the local file with the CRC32C (always set by GCS) and MD5 (absent for composite objects) of the blob. */
+    private static void verifyChecksums(Blob blob, Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        MessageDigest md5 = md5();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            while (in.read(buf) != -1) {
+                buf.flip();
+                crc.update(buf.array(), 0, buf.limit());
+                md5.update(buf.array(), 0, buf.limit());
+                buf.clear();
+            }
+        }
+        verifyCrc32c(blob, crc.getValue());
+        if (blob.getMd5() != null && !blob.getMd5().equals(Base64.getEncoder().encodeToString(md5.digest()))) {
+            throw new IOException("MD5 mismatch for " + blob.getName());
+        }
+    }
+
+    private static void verifyCrc32c(Blob blob, long crc) throws IOException {
+        if (blob.getCrc32c() == null) return;
+        String actual = Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc).array());
+        if (!blob.getCrc32c().equals(actual)) {
+            throw new IOException("CRC32C mismatch for " + blob.getName());
+        }
+    }
+
+    /** Identity of what a restore would produce: base generation plus the last segment and its generation. */
+    private static String remoteState(Blob base, List<Blob> segments) {
+        Blob last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        return base.getGeneration() + ":" + segments.size() + ":" + (last != null ? last.getGeneration() : 0);
+    }
+
+    /** Marker next to the DB: remote state it was restored from plus the file size and mtime right after restore. */
+    private static Path stateFile(Path target) {
+        return Path.of(target + STATE_SUFFIX);
+    }
+
+    private static void writeLocalState(Path target, String state) throws IOException {
+        String line = state + " " + Files.size(target) + " " + Files.getLastModifiedTime(target).toMillis();
+        Files.writeString(stateFile(target), line, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * True when the local DB is untouched since it was restored from the same remote state: size and mtime match the
+     * marker and there is no WAL with unsynced frames.
+     */
+    private static boolean localStateMatches(Path target, String state) {
+        try {
+            Path marker = stateFile(target);
+            if (!Files.isRegularFile(target) || !Files.isRegularFile(marker)) return false;
+            Path wal = Path.of(target + "-wal");
+            if (Files.exists(wal) && Files.size(wal) > 0) return false;
+            String expected = state + " " + Files.size(target) + " " + Files.getLastModifiedTime(target).toMillis();
+            return expected.equals(Files.readString(marker, StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Atomically replaces {@code target} with {@code source} and drops the target's WAL/SHM side files and marker. */
+    public static void moveIntoPlace(Path source, Path target) throws IOException {
+        Files.deleteIfExists(stateFile(target));
+        Files.deleteIfExists(Path.of(target + "-wal"));
+        Files.deleteIfExists(Path.of(target + "-shm"));
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // A side file restored earlier carries its marker along (size and mtime survive the move).
+        if (Files.isRegularFile(stateFile(source))) {
+            Files.move(stateFile(source), stateFile(target), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Gzip-compresses a file with a fixed-size buffer. */
+    public static void gzip(Path source, Path target) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), COPY_BUFFER_BYTES)) {
+            in.transferTo(out);
+        }
+    }
+
+    public static void gunzip(Path source, Path target) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(source), COPY_BUFFER_BYTES);
+             OutputStream out = Files.newOutputStream(target)) {
+            in.transferTo(out);
+        }
+    }
+
+    /** Hex SHA-256 of a file; content address of a snapshot. */
+    public static String sha256Hex(Path file) throws IOException {
+        MessageDigest sha = digest("SHA-256");
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[COPY_BUFFER_BYTES];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                sha.update(buf, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static boolean isGzip(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    private static InputStream maybeGunzip(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, COPY_BUFFER_BYTES);
+        buffered.mark(2);
+        boolean gzip = buffered.read() == 0x1f && buffered.read() == 0x8b;
+        buffered.reset();
+        return gzip ? new GZIPInputStream(buffered, COPY_BUFFER_BYTES) : buffered;
+    }
+
+    private static void readPage(FileChannel in, ByteBuffer page, long pgno, int pageSize) throws IOException {
+        page.clear();
+        long pos = (pgno - 1) * pageSize;
+        while (page.hasRemaining()) {
+            int n = in.read(page, pos + page.position());
+            if (n < 0) throw new EOFException("Unexpected end of DB at page " + pgno);
+        }
+    }
+
+    private static MessageDigest md5() {
+        return digest("MD5");
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
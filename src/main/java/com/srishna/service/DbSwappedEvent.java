@@ -0,0 +1,8 @@
+package com.srishna.service;
+
+/**
+ * Published after the live SQLite file was replaced (hot revert / snapshot restore). Anything that caches
+ * data read from the DB must drop it on this event.
+ */
+public record DbSwappedEvent(String source) {
+}
@@ -1,48 +1,144 @@
 package com.srishna.service;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Schedules upload of the local SQLite DB to GCS after the current transaction commits.
- * Upload runs asynchronously so API responses return quickly; sync continues in the background.
+ * Commits only mark the DB dirty; uploads are debounced so any number of commits within
+ * gcp.db-sync.debounce-ms fold into a single upload, and no commit waits longer than
+ * gcp.db-sync.max-staleness-ms. Pending changes are flushed once on graceful shutdown.
  */
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class DbSyncHelper {
 
     private final DataSyncService dataSyncService;
+    private final TaskScheduler dbSyncScheduler;
+
+    @Value("${gcp.db-sync.debounce-ms:2000}")
+    private long debounceMs;
+
+    @Value("${gcp.db-sync.max-staleness-ms:15000}")
+    private long maxStalenessMs;
+
+    /** Bumped on every committed write. */
+    private final AtomicLong dirtyGeneration = new AtomicLong();
+    /** Highest generation known to be in GCS. */
+    private final AtomicLong syncedGeneration = new AtomicLong();
+    /** Time of the oldest unsynced commit (0 = clean); caps how long debouncing can defer an upload. */
+    private final AtomicLong dirtySinceMs = new AtomicLong();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private ScheduledFuture<?> pendingFlush;
+    private volatile boolean shuttingDown;
+
+    public DbSyncHelper(DataSyncService dataSyncService,
+                        @Qualifier("dbSyncScheduler") TaskScheduler dbSyncScheduler) {
+        this.dataSyncService = dataSyncService;
+        this.dbSyncScheduler = dbSyncScheduler;
+    }
 
     /**
-     * Register a sync to upload the DB file to GCS after the current transaction commits.
-     * Upload runs in a background thread so the request returns without waiting for GCS.
+     * Mark the DB dirty after the current transaction commits (immediately if there is none).
+     * The upload itself runs later on the db-sync scheduler, so the request never waits for GCS.
      */
     public void syncToGcsAfterCommit() {
         if (TransactionSynchronizationManager.isSynchronizationActive()) {
             TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
                 @Override
                 public void afterCommit() {
-                    uploadDbToGcsAsync();
+                    markDirty();
                 }
             });
         } else {
-            uploadDbToGcsAsync();
+            markDirty();
+        }
+    }
+
+    /** Record a committed write and (re)arm the debounced flush. */
+    public void markDirty() {
+        dirtyGeneration.incrementAndGet();
+        long now = System.currentTimeMillis();
+        dirtySinceMs.compareAndSet(0, now);
+        scheduleFlush(now);
+    }
+
+    /** True while some committed write has not been uploaded yet. */
+    public boolean isDirty() {
+        return dirtyGeneration.get() != syncedGeneration.get();
+    }
+
+    /**
+     * Trailing debounce: each commit pushes the flush out to now + debounce, but never past
+     * the time the oldest unsynced commit would exceed max staleness.
+     */
+    private synchronized void scheduleFlush(long now) {
+        if (shuttingDown) return;
+        long since = dirtySinceMs.get();
+        long due = Math.min(now + debounceMs, (since == 0 ? now : since) + maxStalenessMs);
+        ScheduledFuture<?> previous = pendingFlush;
+        try {
+            pendingFlush = dbSyncScheduler.schedule(this::flush, Instant.ofEpochMilli(due));
+        } catch (TaskRejectedException e) {
+            // Scheduler is shutting down; the shutdown flush picks up this generation.
+            log.debug("DB sync scheduling rejected: {}", e.getMessage());
+            return;
         }
+        if (previous != null) previous.cancel(false);
     }
 
-    @Async("dbSyncExecutor")
-    public void uploadDbToGcsAsync() {
+    /**
+     * Upload the DB if any commit is unsynced. One upload covers every generation committed before it
+     * started; commits that land during the upload re-arm the scheduler. Failures are retried after the debounce window.
+     */
+    public void flush() {
+        flushLock.lock();
         try {
-            dataSyncService.uploadDbToGcs();
-        } catch (IOException e) {
-            log.error("Failed to sync DB to GCS: {}", e.getMessage());
+            // Reset first: a commit after this re-seeds dirtySinceMs itself, one before it is included in target
+            long since = dirtySinceMs.getAndSet(0);
+            long target = dirtyGeneration.get();
+            if (target == syncedGeneration.get()) {
+                dirtySinceMs.compareAndSet(0, since);
+                return;
+            }
+            try {
+                dataSyncService.syncToGcs();
+                syncedGeneration.accumulateAndGet(target, Math::max);
+                log.debug("DB synced to GCS (generation {})", target);
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to sync DB to GCS: {}", e.getMessage());
+                dirtySinceMs.compareAndSet(0, since);
+                scheduleFlush(System.currentTimeMillis());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** Cloud Run sends SIGTERM before stopping the instance; upload whatever is still pending once. */
+    @PreDestroy
+    public void flushOnShutdown() {
+        synchronized (this) {
+            shuttingDown = true;
+            if (pendingFlush != null) pendingFlush.cancel(false);
+        }
+        if (isDirty()) {
+            log.info("Flushing pending DB changes to GCS before shutdown");
+            flush();
         }
     }
 }
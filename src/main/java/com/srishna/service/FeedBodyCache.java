@@ -0,0 +1,114 @@
+package com.srishna.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Feed responses (/api/posts/list, /all, /admin/list) serialized once per data generation: JSON bytes, their gzip
+ * form and a strong ETag derived from the content. Requests are answered by writing the cached bytes (or 304).
+ * Bodies are also rebuilt after app.feed-body.max-age-seconds so embedded signed image URLs (if enabled) stay fresh; a rebuild
+ * with unchanged content yields the same ETag, so clients keep getting 304.
+ */
+@Component
+public class FeedBodyCache {
+
+    /** One serialized feed. The gzip ETag differs from the identity ETag, as required for strong validators. */
+    public record FeedBody(long generation, long builtAtMillis, byte[] identity, byte[] gzip, String etag, String gzipEtag) {
+
+        /** True if an If-None-Match header value matches either representation (or is *). */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) return false;
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag) || t.equals(gzipEtag)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final DataGeneration dataGeneration;
+    private final Cache<String, FeedBody> bodies;
+
+    public FeedBodyCache(ObjectMapper objectMapper, DataGeneration dataGeneration,
+                         @Value("${app.feed-body.max-age-seconds:60}") long maxAgeSeconds) {
+        this.objectMapper = objectMapper;
+        this.dataGeneration = dataGeneration;
+        this.bodies = Caffeine.newBuilder()
+                .maximumSize(16)
+                .expireAfterWrite(Duration.ofSeconds(maxAgeSeconds))
+                .build();
+    }
+
+    /** Serialized body of feed {@code name} for the current generation; {@code source} runs at most once per build. */
+    public FeedBody get(String name, Supplier<?> source) {
+        long generation = dataGeneration.current();
+        FeedBody cached = bodies.getIfPresent(name);
+        if (cached != null && cached.generation() == generation) return cached;
+        return bodies.asMap().compute(name, (key, old) ->
+                old != null && old.generation() == generation ? old : build(generation, source.get()));
+    }
+
+    /** Bodies built for {@code generation}, by feed name (for {@link WarmCacheSnapshot}). */
+    public Map<String, FeedBody> bodiesOf(long generation) {
+        Map<String, FeedBody> result = new HashMap<>();
+        bodies.asMap().forEach((name, body) -> {
+            if (body.generation() == generation) result.put(name, body);
+        });
+        return result;
+    }
+
+    /** Puts a saved JSON body back as feed {@code name} of the current generation (the caller checked the data). */
+    public void restore(String name, byte[] identity, long builtAtMillis) {
+        bodies.asMap().putIfAbsent(name, body(dataGeneration.current(), builtAtMillis, identity));
+    }
+
+    private FeedBody build(long generation, Object value) {
+        try {
+            return body(generation, System.currentTimeMillis(), objectMapper.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Feed serialization failed", e);
+        }
+    }
+
+    private static FeedBody body(long generation, long builtAtMillis, byte[] identity) {
+        String tag = contentTag(identity);
+        return new FeedBody(generation, builtAtMillis, identity, gzip(identity), "\"" + tag + "\"", "\"" + tag + "-gz\"");
+    }
+
+    private static String contentTag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
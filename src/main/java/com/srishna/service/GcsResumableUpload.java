@@ -0,0 +1,132 @@
+package com.srishna.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auth.Credentials;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.Storage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GCS JSON API resumable upload sessions over plain HTTP, for uploads whose bytes arrive over several client requests
+ * (the client library's writer keeps its session inside one channel). A session URI is its own credential, so only
+ * {@link #start} is authorized. Pieces other than the last must be multiples of {@link #ALIGNMENT} bytes.
+ */
+final class GcsResumableUpload {
+
+    static final int ALIGNMENT = 256 * 1024;
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private final Storage storage;
+    private final String bucketName;
+    private final ObjectMapper objectMapper;
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+    GcsResumableUpload(Storage storage, String bucketName, ObjectMapper objectMapper) {
+        this.storage = storage;
+        this.bucketName = bucketName;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Bytes GCS has persisted, and the stored object's CRC32C (base64) once the upload is complete (null before).
+     */
+    record Progress(long committed, String crc32c) {
+        boolean complete() {
+            return crc32c != null;
+        }
+    }
+
+    /** Starts a session for a new object (fails with 412 if it exists); returns the session URI. */
+    String start(String objectName, String contentType, long length) throws IOException {
+        String url = storage.getOptions().getHost() + "/upload/storage/v1/b/" + encode(bucketName)
+                + "/o?uploadType=resumable&ifGenerationMatch=0&name=" + encode(objectName);
+        String metadata = objectMapper.writeValueAsString(Map.of("name", objectName, "contentType", contentType));
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .header("X-Upload-Content-Type", contentType)
+                .header("X-Upload-Content-Length", String.valueOf(length))
+                .POST(HttpRequest.BodyPublishers.ofString(metadata));
+        authorize(request, url);
+        HttpResponse<String> response = send(request.build());
+        String location = response.headers().firstValue("Location").orElse(null);
+        if (response.statusCode() != 200 || location == null) {
+            throw new IOException("Could not start upload of " + objectName + ": HTTP " + response.statusCode() + " "
+                    + response.body());
+        }
+        return location;
+    }
+
+    /** Sends {@code data[off, off+len)} at {@code position}; {@code last} if it ends the object of {@code total} bytes. */
+    Progress put(String sessionUri, byte[] data, int off, int len, long position, long total, boolean last)
+            throws IOException {
+        String range = len == 0
+                ? "bytes */" + total
+                : "bytes " + position + "-" + (position + len - 1) + "/" + (last ? String.valueOf(total) : "*");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(sessionUri))
+                .timeout(TIMEOUT)
+                .header("Content-Range", range)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(data, off, len))
+                .build();
+        return progress(send(request), sessionUri);
+    }
+
+    /** Asks GCS how many bytes of the session it has persisted. */
+    Progress query(String sessionUri, long total) throws IOException {
+        return put(sessionUri, new byte[0], 0, 0, 0, total, false);
+    }
+
+    /** Cancels the session; GCS discards what was sent. */
+    void cancel(String sessionUri) throws IOException {
+        send(HttpRequest.newBuilder(URI.create(sessionUri)).timeout(TIMEOUT).DELETE().build());
+    }
+
+    private Progress progress(HttpResponse<String> response, String sessionUri) throws IOException {
+        int status = response.statusCode();
+        if (status == 308) {
+            // "Range: bytes=0-N" lists the persisted bytes; absent when nothing is persisted yet
+            long committed = response.headers().firstValue("Range")
+                    .map(range -> Long.parseLong(range.substring(range.lastIndexOf('-') + 1)) + 1)
+                    .orElse(0L);
+            return new Progress(committed, null);
+        }
+        if (status == 200 || status == 201) {
+            JsonNode object = objectMapper.readTree(response.body());
+            return new Progress(object.path("size").asLong(), object.path("crc32c").asText());
+        }
+        throw new IOException("Upload session " + sessionUri + " answered HTTP " + status + " " + response.body());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException {
+        try {
+            return http.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted talking to GCS", e);
+        }
+    }
+
+    private void authorize(HttpRequest.Builder request, String url) throws IOException {
+        Credentials credentials = storage.getOptions().getCredentials();
+        if (credentials == null || credentials instanceof NoCredentials) return;
+        for (Map.Entry<String, List<String>> header : credentials.getRequestMetadata(URI.create(url)).entrySet()) {
+            for (String value : header.getValue()) request.header(header.getKey(), value);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,132 @@
+package com.srishna.service;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.srishna.entity.ImageBlob;
+import com.srishna.repository.ImageBlobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Content-addressed image index ({@link ImageBlob}): finds the object already holding an uploaded image and counts
+ * the posts using each object. Posts take a reference when created and drop it when deleted; an object nobody uses
+ * is deleted (with its derivatives) only after app.image-blobs.delete-after-days, because a DB snapshot restore can
+ * bring back posts that still point at it. Posts created before the index existed have no row and are never deleted.
+ */
+@Component
+@Slf4j
+public class ImageBlobService {
+
+    private final ImageBlobRepository imageBlobRepository;
+    private final Storage storage;
+    private final DbSyncHelper dbSyncHelper;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskScheduler scheduler;
+
+    @Value("${gcp.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.image-blobs.delete-after-days:30}")
+    private int deleteAfterDays;
+
+    @Value("${app.image-blobs.sweep-interval-seconds:3600}")
+    private long sweepIntervalSeconds;
+
+    @Value("${app.image-blobs.sweep-batch:100}")
+    private int sweepBatch;
+
+    public ImageBlobService(ImageBlobRepository imageBlobRepository,
+                            Storage storage,
+                            DbSyncHelper dbSyncHelper,
+                            TransactionTemplate transactionTemplate,
+                            @Qualifier("cacheWarmerScheduler") TaskScheduler scheduler) {
+        this.imageBlobRepository = imageBlobRepository;
+        this.storage = storage;
+        this.dbSyncHelper = dbSyncHelper;
+        this.transactionTemplate = transactionTemplate;
+        this.scheduler = scheduler;
+    }
+
+    /** Object already holding the image with this content hash, if any. */
+    public Optional<String> findPath(String sha256) {
+        return imageBlobRepository.findById(sha256).map(ImageBlob::getObjectPath);
+    }
+
+    /**
+     * Counts one more post using the stored image; call in the transaction that saves the post. A reused object whose
+     * row has meanwhile been swept is gone from the bucket, so that upload fails instead of creating a broken post.
+     */
+    public void acquire(StorageService.StoredImage image) {
+        if (image.sha256() == null) return;
+        Optional<ImageBlob> existing = imageBlobRepository.findById(image.sha256());
+        if (existing.isPresent()) {
+            ImageBlob blob = existing.get();
+            blob.setRefCount(blob.getRefCount() + 1);
+            blob.setReleasedAt(null);
+            return;
+        }
+        if (image.reused()) {
+            throw new IllegalStateException("Image " + image.path() + " was deleted while being reused; upload it again");
+        }
+        imageBlobRepository.save(ImageBlob.builder()
+                .sha256(image.sha256())
+                .objectPath(image.path())
+                .sizeBytes(image.sizeBytes())
+                .refCount(1)
+                .build());
+    }
+
+    /** Counts one post less using the object; call in the transaction that deletes the post. */
+    public void release(String objectPath) {
+        imageBlobRepository.findByObjectPath(objectPath).ifPresent(blob -> {
+            blob.setRefCount(Math.max(0, blob.getRefCount() - 1));
+            if (blob.getRefCount() == 0) blob.setReleasedAt(Instant.now());
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (deleteAfterDays <= 0) return;
+        Duration interval = Duration.ofSeconds(sweepIntervalSeconds);
+        scheduler.scheduleWithFixedDelay(this::sweep, Instant.now().plus(interval), interval);
+    }
+
+    /** Deletes a batch of objects unreferenced for longer than delete-after-days, with their derivatives. */
+    void sweep() {
+        try {
+            Instant before = Instant.now().minus(Duration.ofDays(deleteAfterDays));
+            List<String> paths = transactionTemplate.execute(tx -> {
+                List<ImageBlob> released = imageBlobRepository.findReleasedBefore(before, PageRequest.of(0, sweepBatch));
+                if (released.isEmpty()) return List.<String>of();
+                imageBlobRepository.deleteAll(released);
+                dbSyncHelper.syncToGcsAfterCommit();
+                return released.stream().map(ImageBlob::getObjectPath).toList();
+            });
+            if (paths == null || paths.isEmpty()) return;
+            List<BlobId> objects = new ArrayList<>();
+            for (String path : paths) {
+                objects.add(BlobId.of(bucketName, path));
+                for (ImageDerivatives.Size size : ImageDerivatives.Size.values()) {
+                    objects.add(BlobId.of(bucketName, ImageDerivatives.derivedPath(path, size)));
+                }
+            }
+            storage.delete(objects);
+            log.info("Deleted {} unreferenced images", paths.size());
+        } catch (RuntimeException e) {
+            log.warn("Unreferenced image sweep failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.srishna.service;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.srishna.entity.Post;
+import com.srishna.repository.PostRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Makes resized JPEG copies of each post image (images/derived/{name}-{size}.jpg) so feeds can load thumbnails
+ * instead of the original. Runs after a post is created (after commit) on a bounded worker pool; posts that could
+ * not be queued, and older posts, are picked up by a periodic sweep. The original is decoded with subsampling so
+ * a huge upload never needs more than about app.derivatives.max-decode-pixels in memory. The outcome is stored on
+ * the post (derivativeStatus), which changes its DTO: the post's validator is dropped at once, while feeds pick
+ * the change up through one DataGeneration bump per publish-interval-seconds, so a stream of uploads (or an import)
+ * does not discard every cached feed page once per image.
+ * ImageIO decodes JPEG, PNG, GIF and BMP; other formats (e.g. WebP, HEIC) end as FAILED and keep the original only.
+ */
+@Component
+@Slf4j
+public class ImageDerivatives {
+
+    /** The fixed set of derivative sizes (target width in pixels; never upscaled). */
+    public enum Size {
+        THUMB(320), MEDIUM(720), LARGE(1280);
+
+        private final int width;
+
+        Size(int width) {
+            this.width = width;
+        }
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Optional<Size> of(String key) {
+            for (Size size : values()) {
+                if (size.key().equalsIgnoreCase(key)) return Optional.of(size);
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static final String DERIVED_PREFIX = "images/derived/";
+
+    private final Storage storage;
+    private final PostRepository postRepository;
+    private final DataGeneration dataGeneration;
+    private final PostValidators postValidators;
+    private final DbSyncHelper dbSyncHelper;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskExecutor executor;
+    private final TaskScheduler scheduler;
+
+    @Value("${gcp.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.derivatives.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.derivatives.jpeg-quality:0.82}")
+    private float jpegQuality;
+
+    @Value("${app.derivatives.max-decode-pixels:16000000}")
+    private long maxDecodePixels;
+
+    @Value("${app.derivatives.sweep-interval-seconds:300}")
+    private long sweepIntervalSeconds;
+
+    @Value("${app.derivatives.sweep-batch:20}")
+    private int sweepBatch;
+
+    @Value("${app.derivatives.publish-interval-seconds:30}")
+    private long publishIntervalSeconds;
+
+    /** Posts queued or being processed, so the sweep does not queue them twice. */
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    /** A derivative status was committed since the last publish, so feeds still show the old DTOs. */
+    private final AtomicBoolean unpublished = new AtomicBoolean();
+
+    public ImageDerivatives(Storage storage,
+                            PostRepository postRepository,
+                            DataGeneration dataGeneration,
+                            PostValidators postValidators,
+                            DbSyncHelper dbSyncHelper,
+                            TransactionTemplate transactionTemplate,
+                            @Qualifier("imageDerivativeExecutor") TaskExecutor executor,
+                            @Qualifier("cacheWarmerScheduler") TaskScheduler scheduler) {
+        this.storage = storage;
+        this.postRepository = postRepository;
+        this.dataGeneration = dataGeneration;
+        this.postValidators = postValidators;
+        this.dbSyncHelper = dbSyncHelper;
+        this.transactionTemplate = transactionTemplate;
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /** Object path of a derivative: images/uuid.png -> images/derived/uuid-thumb.jpg. */
+    public static String derivedPath(String imagePath, Size size) {
+        String name = imagePath.substring(imagePath.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return DERIVED_PREFIX + (dot > 0 ? name.substring(0, dot) : name) + "-" + size.key() + ".jpg";
+    }
+
+    /** Queue the post once the current transaction commits (immediately if there is none). */
+    public void processAfterCommit(long postId) {
+        if (!enabled) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(postId);
+                }
+            });
+        } else {
+            submit(postId);
+        }
+    }
+
+    /** Queues committed posts (e.g. a finished import) as far as the pool accepts them; the sweep takes the rest. */
+    public void process(List<Long> postIds) {
+        if (!enabled) return;
+        for (Long id : postIds) {
+            if (!submit(id)) break;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) return;
+        Duration interval = Duration.ofSeconds(sweepIntervalSeconds);
+        scheduler.scheduleWithFixedDelay(this::sweep, Instant.now().plusSeconds(10), interval);
+        Duration publishInterval = Duration.ofSeconds(publishIntervalSeconds);
+        scheduler.scheduleWithFixedDelay(this::publish, Instant.now().plus(publishInterval), publishInterval);
+    }
+
+    /** One generation bump for all derivative statuses committed since the last call. */
+    void publish() {
+        if (unpublished.getAndSet(false)) dataGeneration.bumpAfterCommit();
+    }
+
+    /** Queues a batch of posts still without derivatives (newest first), as far as the pool accepts them. */
+    void sweep() {
+        try {
+            for (Long id : postRepository.findIdsWithoutDerivatives(Post.DerivativeStatus.PENDING,
+                    PageRequest.of(0, sweepBatch))) {
+                if (!submit(id)) break;
+            }
+        } catch (Exception e) {
+            log.warn("Image derivative sweep failed: {}", e.getMessage());
+        }
+    }
+
+    /** False if the pool is full; the post stays PENDING for the next sweep. */
+    private boolean submit(long postId) {
+        if (!inFlight.add(postId)) return true;
+        try {
+            executor.execute(() -> {
+                try {
+                    process(postId);
+                } finally {
+                    inFlight.remove(postId);
+                }
+            });
+            return true;
+        } catch (TaskRejectedException e) {
+            inFlight.remove(postId);
+            log.debug("Image derivative queue full, post {} left for the sweep", postId);
+            return false;
+        }
+    }
+
+    private void process(long postId) {
+        Optional<PostRepository.ImageRef> ref = postRepository.findImageRefById(postId);
+        if (ref.isEmpty() || ref.get().getDerivativeStatus() == Post.DerivativeStatus.READY
+                || ref.get().getDerivativeStatus() == Post.DerivativeStatus.FAILED) {
+            return;
+        }
+        String imagePath = ref.get().getImagePath();
+        if (postRepository.existsByImagePathAndDerivativeStatus(imagePath, Post.DerivativeStatus.READY)) {
+            setStatus(postId, Post.DerivativeStatus.READY);
+            log.debug("Image derivatives for post {}: shared with an earlier post", postId);
+            return;
+        }
+        long started = System.nanoTime();
+        Post.DerivativeStatus status;
+        try {
+            status = render(imagePath) ? Post.DerivativeStatus.READY : Post.DerivativeStatus.FAILED;
+        } catch (StorageException e) {
+            if (e.getCode() != 404) {
+                log.warn("Image derivatives for post {} postponed: {}", postId, e.getMessage());
+                return;
+            }
+            status = Post.DerivativeStatus.FAILED;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Image derivatives for post {} failed: {}", postId, e.getMessage());
+            status = Post.DerivativeStatus.FAILED;
+        }
+        setStatus(postId, status);
+        log.info("Image derivatives for post {}: {} in {} ms", postId, status, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /** Decodes the original (subsampled if large) and uploads every size. False if the format cannot be decoded. */
+    private boolean render(String imagePath) throws IOException {
+        BufferedImage source = decode(imagePath);
+        if (source == null) return false;
+        BufferedImage current = source;
+        Size[] sizes = Size.values();
+        // Largest first, each size resized from the previous one
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            current = resize(current, Math.min(sizes[i].width, source.getWidth()));
+            upload(derivedPath(imagePath, sizes[i]), encode(current));
+        }
+        return true;
+    }
+
+    private BufferedImage decode(String imagePath) throws IOException {
+        try (ReadChannel channel = storage.reader(BlobId.of(bucketName, imagePath));
+             InputStream in = Channels.newInputStream(channel);
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                log.info("No decoder for {}, keeping the original only", imagePath);
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                long width = reader.getWidth(0);
+                long height = reader.getHeight(0);
+                int step = 1;
+                while ((width / step) * (height / step) > maxDecodePixels
+                        || width / (step + 1) >= 2L * Size.LARGE.width) {
+                    step++;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Scales to {@code width} (halving first for large reductions) onto an opaque RGB image. */
+    private static BufferedImage resize(BufferedImage image, int width) {
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width) {
+            current = draw(current, current.getWidth() / 2, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        if (current.getWidth() != width || current.getType() != BufferedImage.TYPE_INT_RGB) {
+            current = draw(current, width, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        }
+        return current;
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, Object interpolation) {
+        int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /** Derivative names never change for a post, so they may be cached for a year. */
+    private void upload(String path, byte[] jpeg) {
+        storage.create(BlobInfo.newBuilder(BlobId.of(bucketName, path))
+                .setContentType("image/jpeg")
+                .setCacheControl("public, max-age=31536000, immutable")
+                .build(), jpeg);
+    }
+
+    private void setStatus(long postId, Post.DerivativeStatus status) {
+        transactionTemplate.executeWithoutResult(tx -> postRepository.findById(postId).ifPresent(post -> {
+            post.setDerivativeStatus(status);
+            postValidators.invalidateAfterCommit(postId);
+            dbSyncHelper.syncToGcsAfterCommit();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    unpublished.set(true);
+                }
+            });
+        }));
+    }
+}
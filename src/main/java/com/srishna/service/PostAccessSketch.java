@@ -0,0 +1,100 @@
+package com.srishna.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate request counts per post id (count-min sketch, 4 rows), plus a bounded set of the hottest ids so the
+ * cache warmer can ask "which posts are requested most". Memory is fixed: 4 x width counters and at most
+ * 2 x hot-set-size candidates. Counts are halved after every 10 x width recordings, so old traffic fades.
+ * Recording is lock-free; estimates can only over-count (hash collisions), never under-count.
+ */
+@Component
+public class PostAccessSketch {
+
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L};
+
+    private final int width;
+    private final int shift;
+    private final int hotSetSize;
+    private final AtomicIntegerArray counters;
+    private final long resetAfter;
+    private final AtomicLong recorded = new AtomicLong();
+
+    /** Candidate hot ids; pruned back to hotSetSize when it reaches twice that. */
+    private final Set<Long> candidates = ConcurrentHashMap.newKeySet();
+
+    public PostAccessSketch(@Value("${gcp.url-cache-warm.sketch-width:4096}") int width,
+                            @Value("${gcp.url-cache-warm.hot-set-size:500}") int hotSetSize) {
+        this.width = Integer.highestOneBit(Math.max(64, width));
+        this.shift = 64 - Integer.numberOfTrailingZeros(this.width);
+        this.hotSetSize = Math.max(1, hotSetSize);
+        this.counters = new AtomicIntegerArray(DEPTH * this.width);
+        this.resetAfter = 10L * this.width;
+    }
+
+    /** Count one request for the post. */
+    public void record(long postId) {
+        for (int row = 0; row < DEPTH; row++) {
+            counters.incrementAndGet(index(row, postId));
+        }
+        candidates.add(postId);
+        if (candidates.size() >= 2 * hotSetSize) {
+            prune();
+        }
+        if (recorded.incrementAndGet() % resetAfter == 0) {
+            age();
+        }
+    }
+
+    /** Estimated request count of the post since counts were last halved (0 if never seen). */
+    public int estimate(long postId) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, postId)));
+        }
+        return estimate;
+    }
+
+    /** Up to {@code limit} of the most requested post ids, hottest first, with their estimates. */
+    public List<Map.Entry<Long, Integer>> hottest(int limit) {
+        List<Map.Entry<Long, Integer>> ranked = new ArrayList<>();
+        for (Long id : candidates) {
+            int estimate = estimate(id);
+            if (estimate > 0) ranked.add(Map.entry(id, estimate));
+        }
+        ranked.sort(Map.Entry.<Long, Integer>comparingByValue().reversed());
+        return ranked.size() > limit ? ranked.subList(0, limit) : ranked;
+    }
+
+    /** Keeps the hotSetSize best candidates. */
+    private synchronized void prune() {
+        if (candidates.size() < 2 * hotSetSize) return;
+        List<Map.Entry<Long, Integer>> ranked = new ArrayList<>();
+        for (Long id : candidates) ranked.add(Map.entry(id, estimate(id)));
+        ranked.sort(Map.Entry.<Long, Integer>comparingByValue().reversed());
+        ranked.subList(hotSetSize, ranked.size()).forEach(e -> candidates.remove(e.getKey()));
+    }
+
+    /** Halves every counter (concurrent increments may be lost, which only makes the estimate slightly lower). */
+    private synchronized void age() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+        candidates.removeIf(id -> estimate(id) == 0);
+    }
+
+    private int index(int row, long postId) {
+        long h = (postId ^ (postId >>> 32)) * SEEDS[row];
+        return row * width + (int) (h >>> shift);
+    }
+}
@@ -0,0 +1,39 @@
+package com.srishna.service;
+
+import com.srishna.entity.Post;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Keyset position in the newest-first feed: the (createdAt, id) of the last post on the previous page.
+ * Serialized as an opaque URL-safe base64 token so clients cannot depend on its contents.
+ */
+public record PostCursor(Instant createdAt, long id) {
+
+    /** Position before the first post; every real post sorts after it. */
+    public static final PostCursor START = new PostCursor(Instant.parse("9999-12-31T23:59:59Z"), Long.MAX_VALUE);
+
+    public static PostCursor after(Post post) {
+        return new PostCursor(post.getCreatedAt(), post.getId());
+    }
+
+    public String encode() {
+        String raw = createdAt.toEpochMilli() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Parses a token from {@link #encode()}; null or blank means the first page. */
+    public static PostCursor decode(String token) {
+        if (token == null || token.isBlank()) return START;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.US_ASCII);
+            int sep = raw.indexOf(':');
+            return new PostCursor(Instant.ofEpochMilli(Long.parseLong(raw.substring(0, sep))),
+                    Long.parseLong(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package com.srishna.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.srishna.dto.ImportResultDto;
+import com.srishna.entity.Post;
+import com.srishna.repository.PostRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Bulk post import (POST /api/admin/import). The body is read as a stream, in one of two formats:
+ * <ul>
+ *   <li>ZIP: {@code manifest.ndjson} plus the image files it names. Each manifest line is
+ *       {@code {"key": "...", "image": "path/in/zip.jpg", "text": "...", "active": true}}.</li>
+ *   <li>NDJSON: one item per line with the image inline,
+ *       {@code {"key": "...", "filename": "a.jpg", "imageBase64": "...", "text": "...", "active": true}}.</li>
+ * </ul>
+ * Each image is spooled to a temp file and uploaded on uploadExecutor while the rest of the body is still being read;
+ * at most app.import.parallelism images are spooled or uploading at once, which also bounds temp disk use. In a ZIP
+ * the manifest should come first: images before it are only spooled, and uploaded once the manifest names them; more
+ * than app.import.max-deferred-entries of them, or more than max-deferred-bytes in all, fail the import.
+ * Posts are inserted in transactions of app.import.batch-size, in item order, as their uploads finish; the feed
+ * caches, the DB sync and the image derivative jobs are triggered once at the end. {@code key} (default: the image
+ * name in a ZIP, the line number in NDJSON) is stored with the post, so sending the same import again skips the items
+ * already imported.
+ */
+@Service
+@Slf4j
+public class PostImportService {
+
+    private static final String MANIFEST = "manifest.ndjson";
+    private static final int KEY_LOOKUP_CHUNK = 500;
+    private static final int MAX_KEY_LENGTH = 200;
+
+    private final PostService postService;
+    private final StorageService storageService;
+    private final PostRepository postRepository;
+    private final ObjectMapper objectMapper;
+    private final Executor uploadExecutor;
+
+    @Value("${app.import.parallelism:4}")
+    private int parallelism;
+
+    @Value("${app.import.batch-size:100}")
+    private int batchSize;
+
+    @Value("${spring.servlet.multipart.max-file-size:100MB}")
+    private DataSize maxImageSize;
+
+    @Value("${app.import.max-deferred-entries:200}")
+    private int maxDeferredEntries;
+
+    @Value("${app.import.max-deferred-bytes:1GB}")
+    private DataSize maxDeferredBytes;
+
+    /** One import at a time: it already uses the upload pool and the DB writer as much as allowed. */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public PostImportService(PostService postService,
+                             StorageService storageService,
+                             PostRepository postRepository,
+                             ObjectMapper objectMapper,
+                             @Qualifier("uploadExecutor") Executor uploadExecutor) {
+        this.postService = postService;
+        this.storageService = storageService;
+        this.postRepository = postRepository;
+        this.objectMapper = objectMapper;
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /** Imports a ZIP with manifest.ndjson. Throws IllegalStateException if another import is running. */
+    public ImportResultDto importZip(InputStream body) throws IOException {
+        return run(body, this::readZip);
+    }
+
+    /** Imports an NDJSON stream with inline images. Throws IllegalStateException if another import is running. */
+    public ImportResultDto importNdjson(InputStream body) throws IOException {
+        return run(body, this::readNdjson);
+    }
+
+    private interface Reader {
+        void read(InputStream body, Run run) throws IOException;
+    }
+
+    private ImportResultDto run(InputStream body, Reader reader) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Another import is running");
+        }
+        long started = System.nanoTime();
+        Run run = new Run();
+        try {
+            try {
+                reader.read(body, run);
+            } catch (IOException e) {
+                // Body cut off or unreadable: keep what was read, a resend resumes after it
+                run.fail(0, null, "Import stopped: " + e.getMessage());
+            } finally {
+                run.finish();
+            }
+        } finally {
+            if (run.created > 0) postService.importFinished(run.createdIds);
+            running.set(false);
+        }
+        run.results.sort(Comparator.comparingInt(ImportResultDto.Item::getLine));
+        log.info("Import finished in {} ms: {} created, {} skipped, {} failed",
+                (System.nanoTime() - started) / 1_000_000, run.created, run.skipped, run.failed);
+        return ImportResultDto.builder()
+                .created(run.created)
+                .skipped(run.skipped)
+                .failed(run.failed)
+                .items(run.results)
+                .build();
+    }
+
+    private void readZip(InputStream body, Run run) throws IOException {
+        ZipInputStream zip = new ZipInputStream(body);
+        boolean manifestSeen = false;
+        for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+            if (entry.isDirectory()) continue;
+            String name = entry.getName();
+            if (MANIFEST.equals(name)) {
+                readManifest(new BufferedReader(new InputStreamReader(unclosable(zip), StandardCharsets.UTF_8)), run);
+                manifestSeen = true;
+                run.submitDeferred();
+            } else if (!manifestSeen) {
+                run.defer(name, zip);
+            } else if (run.images.containsKey(name)) {
+                run.upload(name, zip);
+            }
+            run.drain(false);
+        }
+        if (!manifestSeen) {
+            run.discardDeferred();
+            throw new IllegalArgumentException("ZIP has no " + MANIFEST);
+        }
+    }
+
+    private void readManifest(BufferedReader lines, Run run) throws IOException {
+        List<Item> chunk = new ArrayList<>();
+        int line = 0;
+        for (String text; (text = lines.readLine()) != null; ) {
+            line++;
+            if (text.isBlank()) continue;
+            JsonNode node;
+            try {
+                node = objectMapper.readTree(text);
+            } catch (JsonProcessingException e) {
+                run.fail(line, null, "Invalid JSON: " + e.getOriginalMessage());
+                continue;
+            }
+            String image = node.path("image").asText(null);
+            if (image == null || image.isBlank()) {
+                run.fail(line, node.path("key").asText(null), "Missing image");
+                continue;
+            }
+            chunk.add(new Item(line, node.path("key").asText(image), image, node.path("text").asText(null),
+                    node.path("active").asBoolean(true)));
+            if (chunk.size() == KEY_LOOKUP_CHUNK) {
+                run.accept(chunk);
+                chunk.clear();
+            }
+        }
+        run.accept(chunk);
+    }
+
+    private void readNdjson(InputStream body, Run run) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            int line = 0;
+            JsonToken token;
+            while ((token = nextRoot(parser, run, line)) != null) {
+                line++;
+                if (token != JsonToken.START_OBJECT) {
+                    run.fail(line, null, "Expected a JSON object");
+                    parser.skipChildren();
+                    continue;
+                }
+                String key = null;
+                String filename = null;
+                String text = null;
+                boolean active = true;
+                Path image = null;
+                boolean tooLarge = false;
+                try {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        switch (field) {
+                            case "key" -> key = parser.getValueAsString();
+                            case "filename" -> filename = parser.getValueAsString();
+                            case "text" -> text = parser.getValueAsString();
+                            case "active" -> active = parser.getValueAsBoolean(true);
+                            case "imageBase64" -> {
+                                if (image == null && !tooLarge) {
+                                    image = run.spoolInline(parser);
+                                    tooLarge = image == null;
+                                } else {
+                                    parser.skipChildren();
+                                }
+                            }
+                            default -> parser.skipChildren();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    run.discard(image);
+                    throw e;
+                }
+                if (key == null) key = "line-" + line;
+                if (tooLarge) {
+                    run.fail(line, key, "Image larger than " + maxImageSize.toBytes() + " bytes");
+                    continue;
+                }
+                if (image == null) {
+                    run.fail(line, key, "Missing imageBase64");
+                    continue;
+                }
+                String imageName = "line-" + line + "/" + (filename != null ? filename : "image.jpg");
+                if (run.accept(List.of(new Item(line, key, imageName, text, active))) == 1) {
+                    run.submit(imageName, image);
+                } else {
+                    run.discard(image);
+                }
+                run.drain(false);
+            }
+        }
+    }
+
+    /** Next top-level value; a syntax error ends the stream with a failed item instead of failing the import. */
+    private static JsonToken nextRoot(JsonParser parser, Run run, int line) throws IOException {
+        try {
+            return parser.nextToken();
+        } catch (JsonProcessingException e) {
+            run.fail(line + 1, null, "Invalid JSON, rest of the stream ignored: " + e.getOriginalMessage());
+            return null;
+        }
+    }
+
+    private record Item(int line, String key, String image, String text, boolean active) {
+    }
+
+    /** An accepted item waiting for its image upload, in item order. */
+    private record Pending(Item item, CompletableFuture<StorageService.StoredImage> image) {
+    }
+
+    private interface Spooler {
+        void copy(OutputStream out) throws IOException;
+    }
+
+    /** State of one import. Only the request thread touches it; uploads only complete futures. */
+    private final class Run {
+        final Semaphore permits = new Semaphore(Math.max(1, parallelism));
+        final Map<String, CompletableFuture<StorageService.StoredImage>> images = new HashMap<>();
+        final Set<String> uploaded = new HashSet<>();
+        /** ZIP files that came before the manifest, spooled until it says whether they are needed. */
+        final Map<String, Path> deferred = new HashMap<>();
+        long deferredBytes;
+        final Set<String> keys = new HashSet<>();
+        final Deque<Pending> pending = new ArrayDeque<>();
+        final List<ImportResultDto.Item> results = new ArrayList<>();
+        final List<Long> createdIds = new ArrayList<>();
+        int created;
+        int skipped;
+        int failed;
+
+        /** Queues the items not imported before; returns how many were queued. */
+        int accept(List<Item> items) {
+            if (items.isEmpty()) return 0;
+            Map<String, Long> existing = new HashMap<>();
+            List<String> lookup = items.stream().map(Item::key).filter(k -> k.length() <= MAX_KEY_LENGTH).toList();
+            if (!lookup.isEmpty()) {
+                for (Object[] row : postRepository.findIdsByImportKeys(lookup)) {
+                    existing.put((String) row[0], (Long) row[1]);
+                }
+            }
+            int queued = 0;
+            for (Item item : items) {
+                if (item.key().length() > MAX_KEY_LENGTH) {
+                    fail(item.line(), item.key(), "Key longer than " + MAX_KEY_LENGTH + " characters");
+                } else if (existing.containsKey(item.key())) {
+                    skipped++;
+                    results.add(result(item.line(), item.key(), "skipped", existing.get(item.key()), null));
+                } else if (!keys.add(item.key())) {
+                    fail(item.line(), item.key(), "Duplicate key");
+                } else {
+                    pending.add(new Pending(item, images.computeIfAbsent(item.image(), k -> new CompletableFuture<>())));
+                    queued++;
+                }
+            }
+            return queued;
+        }
+
+        /** Spools the current ZIP entry and uploads it; an oversized image fails only its items. */
+        void upload(String name, InputStream entry) throws IOException {
+            if (uploaded.contains(name)) return;
+            Path file;
+            try {
+                file = spool(entry::transferTo);
+            } catch (ImageTooLargeException e) {
+                uploaded.add(name);
+                images.get(name).completeExceptionally(e);
+                return;
+            }
+            submit(name, file);
+        }
+
+        /** Spools a file that came before the manifest; past the deferred limits the import fails. */
+        void defer(String name, InputStream entry) throws IOException {
+            if (deferred.containsKey(name)) return;
+            if (deferred.size() >= maxDeferredEntries) throw tooMuchBeforeManifest();
+            long budget = maxDeferredBytes.toBytes() - deferredBytes;
+            Path file = null;
+            try {
+                file = Files.createTempFile("srishna-import-", ".img");
+                copyLimited(entry::transferTo, file, Math.min(maxImageSize.toBytes(), budget));
+                deferredBytes += Files.size(file);
+                deferred.put(name, file);
+            } catch (ImageTooLargeException e) {
+                deleteQuietly(file);
+                if (budget < maxImageSize.toBytes()) throw tooMuchBeforeManifest();
+                images.computeIfAbsent(name, k -> new CompletableFuture<>()).completeExceptionally(e);
+                uploaded.add(name);
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(file);
+                throw e;
+            }
+        }
+
+        /** After the manifest: uploads the deferred files it names and drops the rest. */
+        void submitDeferred() throws IOException {
+            for (Map.Entry<String, Path> e : deferred.entrySet()) {
+                if (images.containsKey(e.getKey()) && !uploaded.contains(e.getKey())) {
+                    acquirePermit();
+                    submit(e.getKey(), e.getValue());
+                } else {
+                    deleteQuietly(e.getValue());
+                }
+            }
+            deferred.clear();
+        }
+
+        void discardDeferred() {
+            deferred.values().forEach(PostImportService::deleteQuietly);
+            deferred.clear();
+        }
+
+        private IllegalArgumentException tooMuchBeforeManifest() {
+            return new IllegalArgumentException("More than " + maxDeferredEntries + " files or "
+                    + maxDeferredBytes.toBytes() + " bytes before " + MANIFEST + "; put the manifest first in the ZIP");
+        }
+
+        /** Copies one image to a temp file, after taking an upload permit (released once it is uploaded). */
+        Path spool(Spooler source) throws IOException {
+            acquirePermit();
+            Path file = null;
+            try {
+                file = Files.createTempFile("srishna-import-", ".img");
+                copyLimited(source, file, maxImageSize.toBytes());
+                return file;
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(file);
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Spools the parser's current base64 value like {@link #spool}. An oversized value is still read to its end,
+         * so the rest of the line can be parsed, and null is returned instead of failing the import.
+         */
+        Path spoolInline(JsonParser parser) throws IOException {
+            acquirePermit();
+            Path file = null;
+            try {
+                file = Files.createTempFile("srishna-import-", ".img");
+                boolean fits;
+                long limit = maxImageSize.toBytes();
+                try (LimitedOutputStream out = new LimitedOutputStream(Files.newOutputStream(file), limit, true)) {
+                    parser.readBinaryValue(out);
+                    fits = !out.exceeded();
+                }
+                if (fits) return file;
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(file);
+                permits.release();
+                throw e;
+            }
+            discard(file);
+            return null;
+        }
+
+        private void copyLimited(Spooler source, Path file, long limit) throws IOException {
+            try (OutputStream out = new LimitedOutputStream(Files.newOutputStream(file), limit, false)) {
+                source.copy(out);
+            }
+        }
+
+        private void acquirePermit() throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted");
+            }
+        }
+
+        /** Drops a spooled image that will not be uploaded. */
+        void discard(Path file) {
+            if (file == null) return;
+            deleteQuietly(file);
+            permits.release();
+        }
+
+        void submit(String name, Path file) {
+            uploaded.add(name);
+            CompletableFuture<StorageService.StoredImage> target = images.computeIfAbsent(name, k -> new CompletableFuture<>());
+            String filename = name.substring(name.lastIndexOf('/') + 1);
+            try {
+                CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return storageService.uploadImage(file, filename);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        deleteQuietly(file);
+                        permits.release();
+                    }
+                }, uploadExecutor).whenComplete((image, e) -> {
+                    if (e == null) target.complete(image);
+                    else target.completeExceptionally(e);
+                });
+            } catch (RuntimeException e) {
+                deleteQuietly(file);
+                permits.release();
+                target.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Inserts full batches from the head of the queue whose uploads are done; with {@code force}, inserts
+         * everything, waiting for uploads.
+         */
+        void drain(boolean force) {
+            while (!pending.isEmpty()) {
+                int ready = 0;
+                for (Pending p : pending) {
+                    if (ready == batchSize || (!force && !p.image().isDone())) break;
+                    ready++;
+                }
+                if (ready == 0 || (!force && ready < batchSize)) return;
+                List<Pending> batch = new ArrayList<>(ready);
+                for (int i = 0; i < ready; i++) batch.add(pending.poll());
+                insert(batch);
+            }
+        }
+
+        /** End of the body: images named but never found fail, then everything left is inserted. */
+        void finish() {
+            discardDeferred();
+            images.forEach((name, image) -> {
+                if (!uploaded.contains(name)) image.completeExceptionally(new IllegalArgumentException("Image " + name + " not found"));
+            });
+            drain(true);
+        }
+
+        private void insert(List<Pending> batch) {
+            List<Pending> ok = new ArrayList<>();
+            List<PostService.ImportedPost> posts = new ArrayList<>();
+            for (Pending p : batch) {
+                try {
+                    StorageService.StoredImage image = p.image().join();
+                    ok.add(p);
+                    posts.add(new PostService.ImportedPost(p.item().key(), image, p.item().text(), p.item().active()));
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() instanceof UncheckedIOException io ? io.getCause() : e.getCause();
+                    fail(p.item().line(), p.item().key(), "Upload failed: " + cause.getMessage());
+                }
+            }
+            if (posts.isEmpty()) return;
+            try {
+                List<Post> saved = postService.createImported(posts);
+                for (int i = 0; i < saved.size(); i++) {
+                    created++;
+                    createdIds.add(saved.get(i).getId());
+                    results.add(result(ok.get(i).item().line(), ok.get(i).item().key(), "created", saved.get(i).getId(), null));
+                }
+            } catch (RuntimeException e) {
+                log.warn("Import batch of {} posts failed: {}", posts.size(), e.getMessage());
+                for (Pending p : ok) fail(p.item().line(), p.item().key(), "Insert failed: " + e.getMessage());
+            }
+        }
+
+        void fail(int line, String key, String error) {
+            failed++;
+            results.add(result(line, key, "failed", null, error));
+        }
+    }
+
+    private static ImportResultDto.Item result(int line, String key, String status, Long postId, String error) {
+        return ImportResultDto.Item.builder().line(line).key(key).status(status).postId(postId).error(error).build();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    /** ZIP entries are read through the shared ZipInputStream, which readers must not close. */
+    private static InputStream unclosable(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Fails the copy once more than {@code limit} bytes are written, so one image cannot fill the temp disk; with
+     * {@code discardExcess} the excess is dropped instead and reported by {@link #exceeded()}.
+     */
+    private static final class LimitedOutputStream extends java.io.FilterOutputStream {
+        private final long limit;
+        private final boolean discardExcess;
+        private long written;
+
+        LimitedOutputStream(OutputStream out, long limit, boolean discardExcess) {
+            super(out);
+            this.limit = limit;
+            this.discardExcess = discardExcess;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count(1)) out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (count(len)) out.write(b, off, len);
+        }
+
+        boolean exceeded() {
+            return written > limit;
+        }
+
+        /** False once past the limit (discarding); throws there otherwise. */
+        private boolean count(int n) throws IOException {
+            written += n;
+            if (!exceeded()) return true;
+            if (discardExcess) return false;
+            throw new ImageTooLargeException(limit);
+        }
+    }
+
+    private static final class ImageTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ImageTooLargeException(long limit) {
+            super("Image larger than " + limit + " bytes");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.srishna.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite FTS5 index over posts.text_content (external-content table posts_fts, unicode61 tokenizer so Telugu,
+ * Hindi and accented Latin captions tokenize correctly). Triggers on posts keep it in sync on insert, update and
+ * delete; active/inactive is filtered by joining posts at query time. The table and triggers are created on startup
+ * and after a DB swap if the file does not have them. While the index is unavailable (or app.search.mode=like),
+ * search falls back to the LIKE queries.
+ */
+@Component
+@Slf4j
+public class PostSearchIndex {
+
+    private static final String[] SCHEMA = {
+            "CREATE VIRTUAL TABLE IF NOT EXISTS posts_fts USING fts5(text_content, content='posts', content_rowid='id', "
+                    + "tokenize='unicode61 remove_diacritics 2')",
+            "CREATE TRIGGER IF NOT EXISTS posts_fts_ai AFTER INSERT ON posts BEGIN "
+                    + "INSERT INTO posts_fts(rowid, text_content) VALUES (new.id, new.text_content); END",
+            "CREATE TRIGGER IF NOT EXISTS posts_fts_ad AFTER DELETE ON posts BEGIN "
+                    + "INSERT INTO posts_fts(posts_fts, rowid, text_content) VALUES ('delete', old.id, old.text_content); END",
+            "CREATE TRIGGER IF NOT EXISTS posts_fts_au AFTER UPDATE OF text_content ON posts BEGIN "
+                    + "INSERT INTO posts_fts(posts_fts, rowid, text_content) VALUES ('delete', old.id, old.text_content); "
+                    + "INSERT INTO posts_fts(rowid, text_content) VALUES (new.id, new.text_content); END"
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DbSyncHelper dbSyncHelper;
+
+    /** fts = ranked FTS5 search; like = substring LIKE scan (previous behaviour). */
+    @Value("${app.search.mode:fts}")
+    private String mode;
+
+    private volatile boolean available;
+
+    public PostSearchIndex(JdbcTemplate jdbcTemplate, DbSyncHelper dbSyncHelper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dbSyncHelper = dbSyncHelper;
+    }
+
+    /** True when searches should use the FTS5 index. */
+    public boolean useFts() {
+        return available && "fts".equalsIgnoreCase(mode);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        ensureIndex();
+    }
+
+    @EventListener
+    public void onDbSwapped(DbSwappedEvent event) {
+        ensureIndex();
+    }
+
+    /** Creates the index and triggers if missing; a newly created index is filled from posts. */
+    public synchronized void ensureIndex() {
+        available = false;
+        try {
+            Integer existing = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = 'posts_fts'", Integer.class);
+            for (String ddl : SCHEMA) {
+                jdbcTemplate.execute(ddl);
+            }
+            if (existing == null || existing == 0) {
+                rebuildIndex();
+                log.info("Created FTS5 search index posts_fts");
+            }
+            available = true;
+        } catch (DataAccessException e) {
+            log.warn("FTS5 search index unavailable, search falls back to LIKE: {}", e.getMessage());
+        }
+    }
+
+    /** Rebuilds posts_fts from the posts table. Returns the number of indexed posts. */
+    public synchronized long rebuild() {
+        ensureIndex();
+        if (!available) {
+            throw new IllegalStateException("FTS5 search index is not available");
+        }
+        return rebuildIndex();
+    }
+
+    private long rebuildIndex() {
+        jdbcTemplate.execute("INSERT INTO posts_fts(posts_fts) VALUES ('rebuild')");
+        dbSyncHelper.markDirty();
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM posts", Long.class);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Turns free text into an FTS5 MATCH expression: every whitespace-separated term is quoted (so user input cannot
+     * inject query syntax) and prefix-matched, and all terms must match. Returns null when there are no terms.
+     */
+    public static String toMatchQuery(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String term : text.trim().split("\\s+")) {
+            if (!term.isEmpty()) {
+                terms.add("\"" + term.replace("\"", "\"\"") + "\"*");
+            }
+        }
+        return terms.isEmpty() ? null : String.join(" ", terms);
+    }
+}
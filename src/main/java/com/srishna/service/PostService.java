@@ -1,5 +1,6 @@
 package com.srishna.service;
 
+import com.srishna.dto.PostCursorPageDto;
 import com.srishna.dto.PostDto;
 import com.srishna.entity.Post;
 import com.srishna.entity.ShareRecord;
@@ -9,10 +10,11 @@ import com.srishna.repository.ShareRecordRepository;
 import com.srishna.repository.ShareVisitRepository;
 import com.srishna.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,12 +33,29 @@ public class PostService {
     private final ShareRecordRepository shareRecordRepository;
     private final ShareVisitRepository shareVisitRepository;
     private final StorageService storageService;
+    private final PostSearchIndex postSearchIndex;
+    private final DataGeneration dataGeneration;
+    private final PostValidators postValidators;
+    private final ImageDerivatives imageDerivatives;
+    private final ImageBlobService imageBlobService;
+
+    /**
+     * When true (and GCS URLs are not public), DTOs carry the stable redirect URL {backend-url}/img/{id} instead of
+     * a signed URL, so feed bodies stay small and do not change when signatures rotate.
+     */
+    @Value("${app.images.redirect-urls:true}")
+    private boolean redirectImageUrls;
+
+    @Value("${app.backend-url:http://localhost:8080}")
+    private String backendUrl;
 
     public Page<Post> findAll(Pageable pageable) {
         return postRepository.findAllByActiveTrueOrderByCreatedAtDesc(pageable);
     }
 
     /** Paginated list as DTOs with batched user lookup (no N+1). */
+    @Cacheable(cacheNames = "postLists",
+            key = "{@dataGeneration.current(), 'active', null, #pageable.pageNumber, #pageable.pageSize}")
     public Page<PostDto> findAllDtos(Pageable pageable) {
         Page<Post> page = postRepository.findAllByActiveTrueOrderByCreatedAtDesc(pageable);
         List<PostDto> dtos = toDtoList(page.getContent());
@@ -44,24 +63,55 @@ public class PostService {
     }
 
     /** Search results as DTOs with batched user lookup (no N+1). */
+    @Cacheable(cacheNames = "postLists",
+            key = "{@dataGeneration.current(), 'active', #query.trim(), #pageable.pageNumber, #pageable.pageSize}")
     public Page<PostDto> searchDtos(String query, Pageable pageable) {
         Page<Post> page = search(query, pageable);
         List<PostDto> dtos = toDtoList(page.getContent());
         return new PageImpl<>(dtos, page.getPageable(), page.getTotalElements());
     }
 
+    /**
+     * Keyset page of active posts (or search matches) after {@code cursor}, newest first. Reads one extra row to
+     * know whether there is a next page, so no count query is needed and deep pages cost the same as the first.
+     */
+    @Cacheable(cacheNames = "postLists",
+            key = "{@dataGeneration.current(), 'cursor', #query == null ? null : #query.trim(), #cursor, #size}")
+    public PostCursorPageDto findCursorDtos(String query, String cursor, int size) {
+        PostCursor after = PostCursor.decode(cursor);
+        List<Post> posts;
+        if (query == null || query.isBlank()) {
+            posts = postRepository.findActiveAfter(after.createdAt(), after.id(), PageRequest.of(0, size + 1));
+        } else if (postSearchIndex.useFts()) {
+            String match = PostSearchIndex.toMatchQuery(query);
+            posts = match == null ? List.of() : postRepository.searchActiveByFtsAfter(
+                    match, after.createdAt().toEpochMilli(), after.id(), size + 1);
+        } else {
+            posts = postRepository.searchActiveByTextAfter(query.trim(), after.createdAt(), after.id(),
+                    PageRequest.of(0, size + 1));
+        }
+        boolean hasMore = posts.size() > size;
+        List<Post> page = hasMore ? posts.subList(0, size) : posts;
+        return PostCursorPageDto.builder()
+                .items(toDtoList(page))
+                .nextCursor(hasMore ? PostCursor.after(page.get(page.size() - 1)).encode() : null)
+                .build();
+    }
+
+    @Cacheable(cacheNames = "postLists", key = "{@dataGeneration.current(), 'active', 'all'}")
     public List<PostDto> findAllAsList() {
         List<Post> posts = postRepository.findAllByActiveTrueOrderByCreatedAtDesc();
         return toDtoList(posts);
     }
 
     /** All posts (active + inactive) for admin table. */
+    @Cacheable(cacheNames = "postLists", key = "{@dataGeneration.current(), 'any', 'all'}")
     public List<PostDto> findAllIncludingInactive() {
         List<Post> posts = postRepository.findAllByOrderByCreatedAtDesc();
         return toDtoList(posts);
     }
 
-    /** Convert post list to DTOs with one batched user lookup to avoid N+1. */
+    /** Convert post list to DTOs with one batched user lookup (and one bulk image URL lookup) to avoid N+1. */
     private List<PostDto> toDtoList(List<Post> posts) {
         if (posts.isEmpty()) return List.of();
         Set<Long> userIds = new HashSet<>();
@@ -73,12 +123,21 @@ public class PostService {
             userRepository.findAllById(userIds).forEach(u ->
                     uploaderNames.put(u.getId(), (u.getName() != null && !u.getName().isBlank()) ? u.getName() : u.getEmail()));
         }
+        Map<String, String> storageUrls = embedsStorageUrls()
+                ? storageService.getPublicUrls(posts.stream().flatMap(p -> imagePaths(p).stream()).toList())
+                : Map.of();
         return posts.stream()
-                .map(p -> toDto(p, uploaderNames.get(p.getUserId())))
+                .map(p -> toDto(p, uploaderNames.get(p.getUserId()), storageUrls))
                 .collect(Collectors.toList());
     }
 
+    /** Relevance-ranked FTS5 search when the index is available, otherwise the LIKE scan. */
     public Page<Post> search(String query, Pageable pageable) {
+        if (postSearchIndex.useFts()) {
+            String match = PostSearchIndex.toMatchQuery(query);
+            if (match == null) return Page.empty(pageable);
+            return postRepository.searchActiveByFts(match, pageable);
+        }
         return postRepository.searchActiveByText(query.trim(), pageable);
     }
 
@@ -86,36 +145,103 @@ public class PostService {
         return postRepository.findById(id);
     }
 
+    /** Image path and derivative status of a post (active or not) for GET /img/{id}; cached per data generation. */
+    @Cacheable(cacheNames = "imagePaths", key = "{@dataGeneration.current(), #id}")
+    public Optional<PostRepository.ImageRef> findImage(Long id) {
+        return postRepository.findImageRefById(id);
+    }
+
+    /** A post's DTO together with its HTTP validator. */
+    public record PostView(PostDto dto, PostValidators.Validator validator) {
+    }
+
+    /** Loads the post as DTO and records its validator so later conditional GETs need no DB access. */
+    public Optional<PostView> findViewById(Long id) {
+        long generation = dataGeneration.current();
+        return postRepository.findById(id).map(post -> {
+            PostDto dto = toDto(post);
+            return new PostView(dto, postValidators.record(post, dto.getImageUrl(), generation));
+        });
+    }
+
     @Transactional
-    @CacheEvict(cacheNames = "postLists", allEntries = true)
-    public Post create(Long userId, String imagePath, String textPath, String textContent) {
+    public Post create(Long userId, StorageService.StoredImage image, String textPath, String textContent) {
+        imageBlobService.acquire(image);
         Post post = Post.builder()
                 .userId(userId)
-                .imagePath(imagePath)
+                .imagePath(image.path())
                 .textPath(textPath)
                 .textContent(textContent)
                 .active(true)
+                .derivativeStatus(Post.DerivativeStatus.PENDING)
                 .build();
         post = postRepository.save(post);
+        imageDerivatives.processAfterCommit(post.getId());
+        dataGeneration.bumpAfterCommit();
         dbSyncHelper.syncToGcsAfterCommit();
         return post;
     }
 
+    /** A post of a bulk import batch. */
+    public record ImportedPost(String importKey, StorageService.StoredImage image, String textContent, boolean active) {
+    }
+
+    /**
+     * Saves one batch of imported posts in a single transaction. The caches and the GCS sync are not touched here:
+     * the importer calls {@link #importFinished()} once for the whole import.
+     */
+    @Transactional
+    public List<Post> createImported(List<ImportedPost> batch) {
+        List<Post> posts = new ArrayList<>(batch.size());
+        for (ImportedPost item : batch) {
+            imageBlobService.acquire(item.image());
+            posts.add(Post.builder()
+                    .imagePath(item.image().path())
+                    .textContent(item.textContent())
+                    .active(item.active())
+                    .importKey(item.importKey())
+                    .derivativeStatus(Post.DerivativeStatus.PENDING)
+                    .build());
+        }
+        return postRepository.saveAll(posts);
+    }
+
+    /** Makes imported posts visible in feeds, uploads the DB once and only then queues their image derivatives. */
+    public void importFinished(List<Long> postIds) {
+        dataGeneration.bumpAfterCommit();
+        dbSyncHelper.syncToGcsAfterCommit();
+        imageDerivatives.process(postIds);
+    }
+
+    /** Forgets the text archive of a post whose background upload failed (textContent in the DB is unaffected). */
+    @Transactional
+    public void clearTextPath(Long id, String textPath) {
+        postRepository.findById(id)
+                .filter(p -> textPath.equals(p.getTextPath()))
+                .ifPresent(p -> {
+                    p.setTextPath(null);
+                    postValidators.invalidateAfterCommit(id);
+                    dbSyncHelper.syncToGcsAfterCommit();
+                });
+    }
+
     @Transactional
-    @CacheEvict(cacheNames = "postLists", allEntries = true)
     public Optional<Post> setActive(Long id, boolean active) {
         Optional<Post> result = postRepository.findById(id)
                 .map(p -> {
                     p.setActive(active);
                     return postRepository.save(p);
                 });
-        result.ifPresent(p -> dbSyncHelper.syncToGcsAfterCommit());
+        result.ifPresent(p -> {
+            dataGeneration.bumpAfterCommit();
+            postValidators.invalidateAfterCommit(id);
+            dbSyncHelper.syncToGcsAfterCommit();
+        });
         return result;
     }
 
     /** Permanently delete a post and its related saved items, share records, and share visits. */
     @Transactional
-    @CacheEvict(cacheNames = "postLists", allEntries = true)
     public boolean deleteById(Long id) {
         boolean deleted = postRepository.findById(id)
                 .map(post -> {
@@ -124,11 +250,16 @@ public class PostService {
                     }
                     shareRecordRepository.deleteByPostId(id);
                     savedItemRepository.deleteByPostId(id);
+                    imageBlobService.release(post.getImagePath());
                     postRepository.delete(post);
                     return true;
                 })
                 .orElse(false);
-        if (deleted) dbSyncHelper.syncToGcsAfterCommit();
+        if (deleted) {
+            dataGeneration.bumpAfterCommit();
+            postValidators.invalidateAfterCommit(id);
+            dbSyncHelper.syncToGcsAfterCommit();
+        }
         return deleted;
     }
 
@@ -138,14 +269,15 @@ public class PostService {
                         .map(u -> (u.getName() != null && !u.getName().isBlank()) ? u.getName() : u.getEmail())
                         .orElse(null)
                 : null;
-        return toDto(post, uploaderName);
+        return toDto(post, uploaderName, null);
     }
 
-    private PostDto toDto(Post post, String uploaderName) {
-        String imageUrl = storageService.getPublicUrl(post.getImagePath());
+    /** {@code resolved} holds storage URLs already looked up in bulk; null means look them up here. */
+    private PostDto toDto(Post post, String uploaderName, Map<String, String> resolved) {
         return PostDto.builder()
                 .id(post.getId())
-                .imageUrl(imageUrl)
+                .imageUrl(imageUrl(post, resolved))
+                .imageUrls(imageUrls(post, resolved))
                 .imagePath(post.getImagePath())
                 .textContent(post.getTextContent())
                 .active(post.getActive())
@@ -153,4 +285,56 @@ public class PostService {
                 .createdAt(post.getCreatedAt())
                 .build();
     }
+
+    /** How DTO image URLs are formed; serialized DTOs are only reusable under the same mode. */
+    public String imageUrlMode() {
+        if (storageService.isPublicUrls()) return "public";
+        return redirectImageUrls ? "redirect:" + backendUrl : "signed";
+    }
+
+    /** True if DTOs carry signed URLs, which expire (so serialized feeds must be rebuilt regularly). */
+    public boolean embedsSignedUrls() {
+        return !redirectImageUrls && !storageService.isPublicUrls();
+    }
+
+    /** True if DTOs carry GCS URLs (public or signed) rather than the /img/{id} redirect. */
+    private boolean embedsStorageUrls() {
+        return !redirectImageUrls || storageService.isPublicUrls();
+    }
+
+    /** Public GCS URL when enabled, else the stable /img/{id} redirect (or the signed URL if redirects are off). */
+    private String imageUrl(Post post, Map<String, String> resolved) {
+        if (post.getImagePath() == null || post.getImagePath().isEmpty()) return null;
+        return urlOf(post, post.getImagePath(), "", resolved);
+    }
+
+    /** Resized image URLs by size (redirects to /img/{id}/{size}, or storage URLs); null until they exist. */
+    private Map<String, String> imageUrls(Post post, Map<String, String> resolved) {
+        if (post.getDerivativeStatus() != Post.DerivativeStatus.READY) return null;
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (ImageDerivatives.Size size : ImageDerivatives.Size.values()) {
+            urls.put(size.key(), urlOf(post, ImageDerivatives.derivedPath(post.getImagePath(), size), "/" + size.key(), resolved));
+        }
+        return urls;
+    }
+
+    /** Storage objects a DTO of this post links to: the image and, once ready, its derivatives. */
+    private static List<String> imagePaths(Post post) {
+        if (post.getImagePath() == null || post.getImagePath().isEmpty()) return List.of();
+        if (post.getDerivativeStatus() != Post.DerivativeStatus.READY) return List.of(post.getImagePath());
+        List<String> paths = new ArrayList<>();
+        paths.add(post.getImagePath());
+        for (ImageDerivatives.Size size : ImageDerivatives.Size.values()) {
+            paths.add(ImageDerivatives.derivedPath(post.getImagePath(), size));
+        }
+        return paths;
+    }
+
+    private String urlOf(Post post, String objectPath, String redirectSuffix, Map<String, String> resolved) {
+        if (!embedsStorageUrls()) {
+            return backendUrl.replaceAll("/$", "") + "/img/" + post.getId() + redirectSuffix;
+        }
+        return resolved != null ? resolved.get(objectPath) : storageService.getPublicUrl(objectPath);
+    }
+
 }
@@ -0,0 +1,108 @@
+package com.srishna.service;
+
+import com.srishna.entity.Post;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Creates a post from an upload. The caption is already stored in the DB (textContent); its copy in GCS
+ * (texts/{uuid}.txt) is an archive, controlled by app.upload.text-archive:
+ * <ul>
+ *   <li>{@code async} (default): the path is recorded with the post and the text is uploaded after commit on
+ *       uploadExecutor, so the request waits for the image upload only. If the archive upload fails, the post's
+ *       textPath is cleared.</li>
+ *   <li>{@code sync}: the text is uploaded on uploadExecutor while the image uploads on the request thread; the post
+ *       is saved once both are stored.</li>
+ *   <li>{@code off}: no text copy (textPath is null).</li>
+ * </ul>
+ */
+@Service
+@Slf4j
+public class PostUploadService {
+
+    enum TextArchive { ASYNC, SYNC, OFF }
+
+    private final PostService postService;
+    private final StorageService storageService;
+    private final Executor uploadExecutor;
+    private final TextArchive textArchive;
+
+    public PostUploadService(PostService postService,
+                             StorageService storageService,
+                             @Qualifier("uploadExecutor") Executor uploadExecutor,
+                             @Value("${app.upload.text-archive:async}") String textArchive) {
+        this.postService = postService;
+        this.storageService = storageService;
+        this.uploadExecutor = uploadExecutor;
+        this.textArchive = TextArchive.valueOf(textArchive.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /** Stores the image of a new post, on the request thread. */
+    @FunctionalInterface
+    public interface ImageSource {
+        StorageService.StoredImage store() throws IOException;
+    }
+
+    public Post create(Long userId, MultipartFile image, String text) throws IOException {
+        return create(userId, () -> storageService.uploadImage(image), text);
+    }
+
+    /** Same as {@link #create(Long, MultipartFile, String)} for an image stored another way (resumable upload). */
+    public Post create(Long userId, ImageSource image, String text) throws IOException {
+        boolean archive = text != null && !text.isBlank() && textArchive != TextArchive.OFF;
+        String textPath = archive ? storageService.newTextPath() : null;
+        if (archive && textArchive == TextArchive.SYNC) {
+            CompletableFuture<Void> textUpload = CompletableFuture.runAsync(() -> uploadText(textPath, text), uploadExecutor);
+            StorageService.StoredImage storedImage = image.store();
+            awaitText(textUpload);
+            return postService.create(userId, storedImage, textPath, text);
+        }
+        StorageService.StoredImage storedImage = image.store();
+        Post post = postService.create(userId, storedImage, textPath, text);
+        if (archive) {
+            CompletableFuture.runAsync(() -> uploadText(textPath, text), uploadExecutor)
+                    .whenComplete((ok, e) -> {
+                        if (e != null) archiveFailed(post.getId(), textPath, e);
+                    });
+        }
+        return post;
+    }
+
+    private void uploadText(String textPath, String text) {
+        try {
+            storageService.uploadText(textPath, text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void awaitText(CompletableFuture<Void> textUpload) throws IOException {
+        try {
+            textUpload.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    private void archiveFailed(Long postId, String textPath, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        log.warn("Text archive {} of post {} failed: {}", textPath, postId, cause.getMessage());
+        try {
+            postService.clearTextPath(postId, textPath);
+        } catch (RuntimeException clearFailed) {
+            log.warn("Could not clear textPath of post {}: {}", postId, clearFailed.getMessage());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.srishna.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.srishna.entity.Post;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory registry of HTTP validators (ETag / Last-Modified) per post, so conditional GETs of
+ * /api/posts/{id} and /post/{id}/view can be answered with 304 without loading the post. The version is the post's
+ * updatedAt (createdAt if never updated); it changes on activate/deactivate, and entries are dropped after those
+ * commits, after deletes and after a DB swap. Entries also expire (app.post-validators.ttl-seconds) because the
+ * tag covers the image URL, which rotates when DTOs embed signed URLs (app.images.redirect-urls=false).
+ */
+@Component
+public class PostValidators {
+
+    /** Validator of one post; {@link #etag(String)} gives the strong ETag of a representation (json, html). */
+    public record Validator(String tag, Instant lastModified) {
+
+        public String etag(String representation) {
+            return "\"" + tag + "-" + representation + "\"";
+        }
+
+        /**
+         * True if the request's conditional headers show the client already has this representation:
+         * If-None-Match (weak comparison, as for GET) takes precedence over If-Modified-Since.
+         */
+        public boolean isNotModified(String representation, HttpHeaders request) {
+            try {
+                List<String> ifNoneMatch = request.getIfNoneMatch();
+                if (!ifNoneMatch.isEmpty()) {
+                    String etag = etag(representation);
+                    for (String candidate : ifNoneMatch) {
+                        String tag = candidate.startsWith("W/") ? candidate.substring(2) : candidate;
+                        if (tag.equals("*") || tag.equals(etag)) return true;
+                    }
+                    return false;
+                }
+                long ifModifiedSince = request.getIfModifiedSince();
+                return ifModifiedSince >= 0 && lastModified.getEpochSecond() * 1000 <= ifModifiedSince;
+            } catch (IllegalArgumentException e) {
+                // Malformed conditional header: serve the full response.
+                return false;
+            }
+        }
+    }
+
+    private final DataGeneration dataGeneration;
+    private final Cache<Long, Validator> validators;
+
+    public PostValidators(DataGeneration dataGeneration,
+                          @Value("${app.post-validators.ttl-seconds:600}") long ttlSeconds,
+                          @Value("${app.post-validators.max-entries:10000}") long maxEntries) {
+        this.dataGeneration = dataGeneration;
+        this.validators = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    /** Known validator of post {@code id}, or null (then the caller loads the post and calls {@link #record}). */
+    public Validator peek(Long id) {
+        return validators.getIfPresent(id);
+    }
+
+    /**
+     * Computes the validator of a freshly loaded post. It is remembered only if no post write committed since
+     * {@code generationAtLoad}, so a read racing with a write cannot pin a stale validator.
+     */
+    public Validator record(Post post, String imageUrl, long generationAtLoad) {
+        Instant version = post.getUpdatedAt() != null ? post.getUpdatedAt() : post.getCreatedAt();
+        Validator validator = new Validator(post.getId() + "-" + version.toEpochMilli() + "-" + shortHash(imageUrl),
+                version);
+        if (dataGeneration.current() == generationAtLoad) {
+            validators.put(post.getId(), validator);
+        }
+        return validator;
+    }
+
+    /** Drop the validator of post {@code id} after the current transaction commits (immediately if there is none). */
+    public void invalidateAfterCommit(Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    validators.invalidate(id);
+                }
+            });
+        } else {
+            validators.invalidate(id);
+        }
+    }
+
+    @EventListener
+    public void onDbSwapped(DbSwappedEvent event) {
+        validators.invalidateAll();
+    }
+
+    private static String shortHash(String value) {
+        if (value == null) return "0";
+        CRC32 crc = new CRC32();
+        crc.update(value.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+}
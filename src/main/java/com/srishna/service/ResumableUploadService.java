@@ -0,0 +1,295 @@
+package com.srishna.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Resumable uploads (tus-like, see UploadController): a client creates a session with the image's length, sends it in
+ * chunks at the offset the server reports, and finalizes it into a post. Each session owns a GCS resumable upload to
+ * {@code uploads/{id}}; chunks are read in piece-bytes pieces and each piece is sent on as soon as it is read, so a
+ * chunk of any size needs one piece of memory. GCS only accepts pieces in multiples of 256 KiB (except the last), so a
+ * chunk that ends mid-piece is kept up to the last 256 KiB boundary and the offset returned tells the client where to
+ * go on; chunks in multiples of piece-bytes lose nothing. A retry after a dropped connection resends only what GCS has
+ * not persisted. CRC32C and SHA-256 are computed over the pieces as they are committed: the CRC32C is checked against
+ * the stored object when the last piece lands, and finalize moves the object to its content-addressed image name
+ * (StorageService.adoptUpload).
+ * <p>
+ * Sessions live in memory and expire after idle-timeout-minutes without a request; the GCS session is then cancelled
+ * (or the finished object deleted). Objects left in uploads/ by a previous instance are deleted at startup once they
+ * are older than the idle timeout.
+ */
+@Service
+@Slf4j
+public class ResumableUploadService {
+
+    private static final String UPLOADS_PREFIX = "uploads/";
+    private static final int PUT_ATTEMPTS = 3;
+
+    private final Storage storage;
+    private final String bucketName;
+    private final StorageService storageService;
+    private final TaskScheduler scheduler;
+    private final GcsResumableUpload gcs;
+    private final Cache<String, Session> sessions;
+    private final Duration idleTimeout;
+    private final int pieceBytes;
+    private final long maxLength;
+
+    @Value("${app.upload.sniff-content-type:true}")
+    private boolean sniffContentType;
+
+    public ResumableUploadService(Storage storage,
+                                  StorageService storageService,
+                                  ObjectMapper objectMapper,
+                                  @Qualifier("cacheWarmerScheduler") TaskScheduler scheduler,
+                                  @Value("${gcp.bucket-name}") String bucketName,
+                                  @Value("${app.resumable-upload.idle-timeout-minutes:60}") long idleTimeoutMinutes,
+                                  @Value("${app.resumable-upload.max-sessions:1000}") long maxSessions,
+                                  @Value("${app.resumable-upload.piece-bytes:1048576}") int pieceBytes,
+                                  @Value("${spring.servlet.multipart.max-file-size:100MB}") DataSize maxLength) {
+        this.storage = storage;
+        this.bucketName = bucketName;
+        this.storageService = storageService;
+        this.scheduler = scheduler;
+        this.gcs = new GcsResumableUpload(storage, bucketName, objectMapper);
+        this.idleTimeout = Duration.ofMinutes(idleTimeoutMinutes);
+        this.pieceBytes = Math.max(1, pieceBytes / GcsResumableUpload.ALIGNMENT) * GcsResumableUpload.ALIGNMENT;
+        this.maxLength = maxLength.toBytes();
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(idleTimeout)
+                .scheduler(Scheduler.systemScheduler())
+                .removalListener((String id, Session session, RemovalCause cause) -> {
+                    if (session != null && !session.released) discard(session, cause);
+                })
+                .build();
+    }
+
+    /**
+     * Where a session stands: {@code offset} bytes of {@code length} are stored; it expires at {@code expiresAt}
+     * unless another request comes first.
+     */
+    public record Status(String id, Long userId, long offset, long length, OffsetDateTime expiresAt) {
+        public boolean complete() {
+            return offset == length;
+        }
+    }
+
+    /** Largest accepted upload (the multipart file limit). */
+    public long maxLength() {
+        return maxLength;
+    }
+
+    public Status create(Long userId, long length, String filename) {
+        if (length <= 0 || length > maxLength) {
+            throw new IllegalArgumentException("Upload-Length must be between 1 and " + maxLength);
+        }
+        Session session = new Session(UUID.randomUUID().toString().replace("-", ""), userId, length, filename);
+        sessions.put(session.id, session);
+        return status(session);
+    }
+
+    public Optional<Status> status(String id) {
+        return Optional.ofNullable(sessions.getIfPresent(id)).map(this::status);
+    }
+
+    /**
+     * Appends the chunk in {@code body}, which must start at the session's current offset (IllegalStateException
+     * otherwise, or while another request writes to the session). Bytes past the upload's length are ignored. If the
+     * client disconnects, the pieces already sent stay stored and the IOException is rethrown.
+     */
+    public Optional<Status> append(String id, long offset, InputStream body) throws IOException {
+        Session session = sessions.getIfPresent(id);
+        if (session == null) return Optional.empty();
+        if (!session.lock.tryLock()) throw new IllegalStateException("Upload " + id + " is being written by another request");
+        try {
+            if (offset != session.offset) {
+                throw new IllegalStateException("Upload " + id + " is at offset " + session.offset + ", not " + offset);
+            }
+            byte[] piece = new byte[(int) Math.min(pieceBytes, session.length)];
+            while (session.offset < session.length) {
+                int wanted = (int) Math.min(piece.length, session.length - session.offset);
+                int read = body.readNBytes(piece, 0, wanted);
+                boolean last = session.offset + read == session.length;
+                int send = last ? read : read - read % GcsResumableUpload.ALIGNMENT;
+                if (send > 0) write(session, piece, send, last);
+                if (read < wanted) break;
+            }
+        } finally {
+            session.lock.unlock();
+        }
+        sessions.getIfPresent(id); // a long chunk counts as activity until it ends
+        return Optional.of(status(session));
+    }
+
+    /**
+     * Moves a fully received upload to its image object and ends the session, for PostUploadService to create the
+     * post. IllegalStateException if the session is gone, busy or not complete.
+     */
+    public StorageService.StoredImage complete(String id) {
+        Session session = sessions.getIfPresent(id);
+        if (session == null) throw new IllegalStateException("Upload " + id + " has expired");
+        if (!session.lock.tryLock()) throw new IllegalStateException("Upload " + id + " is being written by another request");
+        try {
+            if (session.released) throw new IllegalStateException("Upload " + id + " is already finalized");
+            if (session.sha256 == null) {
+                throw new IllegalStateException("Upload " + id + " has " + session.offset + " of " + session.length + " bytes");
+            }
+            StorageService.StoredImage image =
+                    storageService.adoptUpload(session.objectPath, session.sha256, session.filename, session.length);
+            session.released = true;
+            sessions.invalidate(id);
+            return image;
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /** Cancels the session and discards what was sent; false if there is no such session. */
+    public boolean cancel(String id) {
+        return sessions.asMap().remove(id) != null;
+    }
+
+    /** Sends one piece, resending what GCS did not persist after a failure; on the last piece checks the CRC32C. */
+    private void write(Session session, byte[] piece, int length, boolean last) throws IOException {
+        if (session.sessionUri == null) {
+            session.sessionUri = gcs.start(session.objectPath, contentType(piece, length), session.length);
+        }
+        long end = session.offset + length;
+        long committed = session.offset;
+        GcsResumableUpload.Progress progress;
+        for (int attempt = 1; ; attempt++) {
+            int from = (int) (committed - session.offset);
+            try {
+                progress = gcs.put(session.sessionUri, piece, from, length - from, committed, session.length, last);
+            } catch (IOException e) {
+                if (attempt >= PUT_ATTEMPTS) throw e;
+                log.debug("Upload {} piece at {} failed, resuming: {}", session.id, committed, e.getMessage());
+                progress = gcs.query(session.sessionUri, session.length);
+            }
+            if (progress.committed() < session.offset || progress.committed() > end) {
+                throw new IOException("GCS holds " + progress.committed() + " bytes of upload " + session.id
+                        + ", expected " + session.offset + " to " + end);
+            }
+            committed = progress.committed();
+            if (committed == end) break;
+            if (attempt >= PUT_ATTEMPTS) throw new IOException("GCS did not persist upload " + session.id + " past " + committed);
+        }
+        session.crc.update(piece, 0, length);
+        session.sha.update(piece, 0, length);
+        session.offset = end;
+        if (!last) return;
+        String expected = StorageService.crc32cBase64(session.crc);
+        if (!expected.equals(progress.crc32c())) {
+            storage.delete(BlobId.of(bucketName, session.objectPath));
+            session.released = true;
+            sessions.invalidate(session.id);
+            throw new IOException("Upload " + session.id + " failed checksum verification (crc32c " + expected
+                    + ", stored " + progress.crc32c() + ")");
+        }
+        session.sha256 = HexFormat.of().formatHex(session.sha.digest());
+    }
+
+    private String contentType(byte[] head, int length) {
+        String sniffed = sniffContentType ? ContentTypeSniffer.sniff(head, length) : null;
+        return sniffed != null ? sniffed : "image/jpeg";
+    }
+
+    private Status status(Session session) {
+        return new Status(session.id, session.userId, session.offset, session.length,
+                OffsetDateTime.now(ZoneOffset.UTC).plus(idleTimeout));
+    }
+
+    /** Drops what an expired or cancelled session stored. */
+    private void discard(Session session, RemovalCause cause) {
+        try {
+            if (session.sha256 != null) {
+                storage.delete(BlobId.of(bucketName, session.objectPath));
+            } else if (session.sessionUri != null) {
+                gcs.cancel(session.sessionUri);
+            }
+            if (cause.wasEvicted()) {
+                log.info("Upload {} {} at {} of {} bytes", session.id, cause == RemovalCause.SIZE ? "evicted" : "expired",
+                        session.offset, session.length);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not discard upload {}: {}", session.id, e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        scheduler.schedule(this::deleteStaleObjects, Instant.now());
+    }
+
+    /** Sessions are in memory, so finished but never finalized uploads of earlier instances are deleted here. */
+    void deleteStaleObjects() {
+        try {
+            Instant before = Instant.now().minus(idleTimeout);
+            int deleted = 0;
+            Page<Blob> page = storage.list(bucketName, Storage.BlobListOption.prefix(UPLOADS_PREFIX));
+            for (Blob blob : page.iterateAll()) {
+                if (blob.getCreateTimeOffsetDateTime() != null && blob.getCreateTimeOffsetDateTime().toInstant().isBefore(before)
+                        && blob.delete()) {
+                    deleted++;
+                }
+            }
+            if (deleted > 0) log.info("Deleted {} abandoned uploads", deleted);
+        } catch (RuntimeException e) {
+            log.warn("Abandoned upload cleanup failed: {}", e.getMessage());
+        }
+    }
+
+    private static final class Session {
+        final String id;
+        final Long userId;
+        final long length;
+        final String filename;
+        final String objectPath;
+        final ReentrantLock lock = new ReentrantLock();
+        final CRC32C crc = new CRC32C();
+        final MessageDigest sha = StorageService.sha256();
+        volatile String sessionUri;
+        volatile long offset;
+        /** Set once the last piece is stored and verified. */
+        volatile String sha256;
+        /** Nothing left to discard when the session is removed (finalized, or already cleaned up). */
+        volatile boolean released;
+
+        Session(String id, Long userId, long length, String filename) {
+            this.id = id;
+            this.userId = userId;
+            this.length = length;
+            this.filename = filename;
+            this.objectPath = UPLOADS_PREFIX + id;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.srishna.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for share visits and share-method logs. Events go into a bounded in-memory ring and are
+ * written in the background as multi-row inserts, one transaction per flush, every app.share-events.flush-interval-ms
+ * or as soon as batch-size events are waiting. Thousands of events therefore cost one commit and one GCS sync.
+ * <p>
+ * Durability: {@code buffered} (default) returns as soon as the event is queued; a crash loses at most one flush
+ * interval. {@code commit} waits until the event's batch is committed (group commit). Backpressure when the ring is
+ * full: {@code drop} rejects the event immediately, {@code block} waits up to offer-timeout-ms for space first.
+ * Pending events are written once on graceful shutdown, before DbSyncHelper's final upload.
+ */
+@Component
+@Slf4j
+public class ShareEventBuffer {
+
+    public enum Durability { BUFFERED, COMMIT }
+
+    public enum Overflow { DROP, BLOCK }
+
+    private enum Kind { VISIT, METHOD }
+
+    private record Event(Kind kind, long shareRecordId, String value, Instant at, CompletableFuture<Void> committed) {
+    }
+
+    /** Rows per INSERT statement; 3 parameters each stays well under SQLite's bound-variable limit. */
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DbSyncHelper dbSyncHelper;
+    private final TaskScheduler scheduler;
+
+    @Value("${app.share-events.capacity:10000}")
+    private int capacity;
+
+    @Value("${app.share-events.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.share-events.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${app.share-events.durability:buffered}")
+    private String durabilityName;
+
+    @Value("${app.share-events.overflow:drop}")
+    private String overflowName;
+
+    @Value("${app.share-events.offer-timeout-ms:100}")
+    private long offerTimeoutMs;
+
+    @Value("${app.share-events.commit-timeout-ms:5000}")
+    private long commitTimeoutMs;
+
+    private Durability durability;
+    private Overflow overflow;
+    private ArrayBlockingQueue<Event> ring;
+
+    /** Events of a failed flush, retried first by the next one. Guarded by flushLock. */
+    private final List<Event> retry = new ArrayList<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    public ShareEventBuffer(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            DbSyncHelper dbSyncHelper,
+                            @Qualifier("shareEventScheduler") TaskScheduler scheduler) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.dbSyncHelper = dbSyncHelper;
+        this.scheduler = scheduler;
+    }
+
+    @PostConstruct
+    void start() {
+        durability = Durability.valueOf(durabilityName.trim().toUpperCase());
+        overflow = Overflow.valueOf(overflowName.trim().toUpperCase());
+        ring = new ArrayBlockingQueue<>(capacity);
+        scheduler.scheduleWithFixedDelay(this::flush, Duration.ofMillis(flushIntervalMs));
+    }
+
+    /** Queue a visit of share record {@code shareRecordId}. Returns false if the event was dropped. */
+    public boolean recordVisit(long shareRecordId, String visitorId) {
+        return submit(Kind.VISIT, shareRecordId, visitorId);
+    }
+
+    /** Queue a share-method log for share record {@code shareRecordId}. Returns false if the event was dropped. */
+    public boolean recordMethod(long shareRecordId, String method) {
+        return submit(Kind.METHOD, shareRecordId, method);
+    }
+
+    /** Counters since startup, plus the number of events currently waiting. */
+    public Stats stats() {
+        return new Stats(accepted.get(), dropped.get(), written.get(), commits.get(), ring.size());
+    }
+
+    public record Stats(long accepted, long dropped, long written, long commits, int pending) {
+    }
+
+    private boolean submit(Kind kind, long shareRecordId, String value) {
+        CompletableFuture<Void> committed = durability == Durability.COMMIT ? new CompletableFuture<>() : null;
+        Event event = new Event(kind, shareRecordId, value, Instant.now(), committed);
+        if (closed || !offer(event)) {
+            if (dropped.incrementAndGet() % 1000 == 1) {
+                log.warn("Share event buffer full or closed; {} events dropped so far", dropped.get());
+            }
+            return false;
+        }
+        accepted.incrementAndGet();
+        if (committed != null || ring.size() >= batchSize) {
+            requestFlush();
+        }
+        if (committed != null) {
+            awaitCommit(committed);
+        }
+        return true;
+    }
+
+    private boolean offer(Event event) {
+        if (overflow == Overflow.DROP) return ring.offer(event);
+        try {
+            return ring.offer(event, offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void awaitCommit(CompletableFuture<Void> committed) {
+        try {
+            committed.get(commitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Still queued; it will be written by a later flush.
+            log.warn("Share event not committed within {} ms", commitTimeoutMs);
+        } catch (ExecutionException e) {
+            log.warn("Share event commit failed: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Flush now on the scheduler thread (at most one request outstanding). */
+    private void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true)) return;
+        try {
+            scheduler.schedule(this::flush, Instant.now());
+        } catch (TaskRejectedException e) {
+            flushRequested.set(false);
+        }
+    }
+
+    /** Writes everything queued so far in one transaction. */
+    void flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            List<Event> batch = new ArrayList<>(retry);
+            retry.clear();
+            ring.drainTo(batch);
+            if (batch.isEmpty()) return;
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    insert(batch, Kind.VISIT,
+                            "insert into share_visits (share_record_id, visited_at, visitor_id) values ");
+                    insert(batch, Kind.METHOD,
+                            "insert into share_method_logs (share_record_id, created_at, method) values ");
+                    dbSyncHelper.syncToGcsAfterCommit();
+                });
+            } catch (RuntimeException e) {
+                log.warn("Share event flush of {} events failed, will retry: {}", batch.size(), e.getMessage());
+                keepForRetry(batch);
+                return;
+            }
+            written.addAndGet(batch.size());
+            commits.incrementAndGet();
+            for (Event event : batch) {
+                if (event.committed() != null) event.committed().complete(null);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void keepForRetry(List<Event> batch) {
+        int keep = Math.min(batch.size(), capacity);
+        retry.addAll(batch.subList(batch.size() - keep, batch.size()));
+        if (keep < batch.size()) {
+            List<Event> lost = batch.subList(0, batch.size() - keep);
+            dropped.addAndGet(lost.size());
+            lost.forEach(e -> {
+                if (e.committed() != null) e.committed().completeExceptionally(new IllegalStateException("dropped"));
+            });
+        }
+    }
+
+    private void insert(List<Event> batch, Kind kind, String sqlPrefix) {
+        List<Event> rows = batch.stream().filter(e -> e.kind() == kind).toList();
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Event> chunk = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+            String sql = sqlPrefix + String.join(",", Collections.nCopies(chunk.size(), "(?,?,?)"));
+            jdbcTemplate.update(sql, (PreparedStatement ps) -> bind(ps, chunk));
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<Event> chunk) throws SQLException {
+        int i = 1;
+        for (Event event : chunk) {
+            ps.setLong(i++, event.shareRecordId());
+            // Same representation Hibernate uses for Instant columns.
+            ps.setTimestamp(i++, Timestamp.from(event.at()));
+            ps.setString(i++, event.value());
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        closed = true;
+        flush();
+        if (!retry.isEmpty()) {
+            log.warn("{} share events could not be written before shutdown", retry.size());
+        }
+    }
+}
@@ -1,11 +1,7 @@
 package com.srishna.service;
 
-import com.srishna.entity.ShareMethodLog;
 import com.srishna.entity.ShareRecord;
-import com.srishna.entity.ShareVisit;
-import com.srishna.repository.ShareMethodLogRepository;
 import com.srishna.repository.ShareRecordRepository;
-import com.srishna.repository.ShareVisitRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,9 +14,9 @@ import java.util.UUID;
 public class ShareTrackingService {
 
     private final ShareRecordRepository shareRecordRepository;
-    private final ShareVisitRepository shareVisitRepository;
-    private final ShareMethodLogRepository shareMethodLogRepository;
+    private final ShareEventBuffer shareEventBuffer;
     private final DbSyncHelper dbSyncHelper;
+    private final PostAccessSketch postAccessSketch;
 
     /** Create a new share link for a post. parentShareId = null for first share; userId = who shared (if logged in). */
     @Transactional
@@ -37,30 +33,20 @@ public class ShareTrackingService {
         return record;
     }
 
-    /** Record that a share was used via a specific app (e.g. whatsapp, twitter). */
-    @Transactional
+    /** Record that a share was used via a specific app (e.g. whatsapp, twitter). Written in the background. */
     public void recordShareMethod(String shareToken, String method) {
-        shareRecordRepository.findByShareToken(shareToken).ifPresent(record -> {
-            shareMethodLogRepository.save(ShareMethodLog.builder()
-                    .shareRecordId(record.getId())
-                    .method(method != null ? method : "unknown")
-                    .build());
-            dbSyncHelper.syncToGcsAfterCommit();
-        });
+        shareRecordRepository.findByShareToken(shareToken).ifPresent(record ->
+                shareEventBuffer.recordMethod(record.getId(), method != null ? method : "unknown"));
     }
 
-    /** Record that someone opened a share link (?ref=TOKEN). Returns postId to show. */
-    @Transactional
+    /** Record that someone opened a share link (?ref=TOKEN). Returns postId to show; the visit is written in the background. */
     public Optional<Long> recordVisit(String shareToken, String visitorId) {
         Optional<ShareRecord> record = shareRecordRepository.findByShareToken(shareToken);
-        if (record.isEmpty()) return Optional.empty();
-        ShareVisit visit = ShareVisit.builder()
-                .shareRecordId(record.get().getId())
-                .visitorId(visitorId)
-                .build();
-        shareVisitRepository.save(visit);
-        dbSyncHelper.syncToGcsAfterCommit();
-        return Optional.of(record.get().getPostId());
+        record.ifPresent(r -> {
+            shareEventBuffer.recordVisit(r.getId(), visitorId);
+            postAccessSketch.record(r.getPostId());
+        });
+        return record.map(ShareRecord::getPostId);
     }
 
     public Optional<ShareRecord> getByToken(String shareToken) {
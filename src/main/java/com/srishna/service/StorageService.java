@@ -1,33 +1,74 @@
 package com.srishna.service;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.HttpMethod;
 import com.google.cloud.storage.Storage;
-import lombok.RequiredArgsConstructor;
+import com.google.cloud.storage.StorageException;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.UUID;
+import java.util.zip.CRC32C;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class StorageService {
 
     private static final String IMAGES_PREFIX = "images/";
     private static final String TEXTS_PREFIX = "texts/";
     private static final String GCS_PUBLIC_BASE = "https://storage.googleapis.com/";
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
 
     private final Storage storage;
+    private final Executor signedUrlExecutor;
+    private final ImageBlobService imageBlobService;
+
+    public StorageService(Storage storage,
+                          @Qualifier("signedUrlExecutor") Executor signedUrlExecutor,
+                          ImageBlobService imageBlobService) {
+        this.storage = storage;
+        this.signedUrlExecutor = signedUrlExecutor;
+        this.imageBlobService = imageBlobService;
+    }
 
     @Value("${gcp.bucket-name}")
     private String bucketName;
@@ -35,53 +76,280 @@ public class StorageService {
     @Value("${gcp.public-urls:false}")
     private boolean publicUrls;
 
+    /** Resumable upload chunk (rounded to 256 KiB by the client); the bound on memory per upload. */
+    @Value("${app.upload.chunk-size-bytes:2097152}")
+    private int uploadChunkBytes;
+
+    @Value("${app.upload.sniff-content-type:true}")
+    private boolean sniffContentType;
+
+    /** Store images under their content hash and reuse the object when the same image is uploaded again. */
+    @Value("${app.upload.dedup:true}")
+    private boolean dedupUploads;
+
     /** Cache signed URLs by object path so browser can cache image response; long validity = load without re-signing. */
     private static final int SIGNED_URL_VALIDITY_HOURS = 24;
     private static final int SIGNED_URL_CACHE_MINUTES = 23 * 60; // just under validity
 
-    private final com.github.benmanes.caffeine.cache.Cache<String, String> signedUrlCache = Caffeine.newBuilder()
-            .maximumSize(2000)
-            .expireAfterWrite(SIGNED_URL_CACHE_MINUTES, TimeUnit.MINUTES)
-            .build();
+    /** Bound on cached URLs by size (path + URL characters), so the cache holds the whole active set of images. */
+    @Value("${gcp.signed-url-cache.max-bytes:33554432}")
+    private long signedUrlCacheMaxBytes;
+
+    /** Entries read after this age are re-signed in the background while the old URL is still served. */
+    @Value("${gcp.signed-url-cache.refresh-after-minutes:1200}")
+    private long refreshAfterMinutes;
+
+    /** Expiry is spread over up to this many minutes before 23h, so a warm-up batch does not expire at one instant. */
+    @Value("${gcp.signed-url-cache.expiry-jitter-minutes:60}")
+    private long expiryJitterMinutes;
+
+    private LoadingCache<String, String> signedUrlCache;
+
+    @PostConstruct
+    void initSignedUrlCache() {
+        long maxNanos = TimeUnit.MINUTES.toNanos(SIGNED_URL_CACHE_MINUTES);
+        long jitterNanos = Math.min(TimeUnit.MINUTES.toNanos(expiryJitterMinutes), maxNanos / 2);
+        signedUrlCache = Caffeine.newBuilder()
+                .maximumWeight(signedUrlCacheMaxBytes)
+                .weigher((String path, String url) -> path.length() + url.length())
+                .expireAfter(new Expiry<String, String>() {
+                    @Override
+                    public long expireAfterCreate(String path, String url, long currentTime) {
+                        return maxNanos - (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String path, String url, long currentTime, long currentDuration) {
+                        return expireAfterCreate(path, url, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String path, String url, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .refreshAfterWrite(Duration.ofMinutes(refreshAfterMinutes))
+                .executor(signedUrlExecutor)
+                .build(new SignedUrlLoader());
+    }
+
+    /**
+     * Signs on a miss (null if signing fails, so a failure is not cached). A failed background refresh keeps the
+     * current URL until it expires. Bulk misses are signed in parallel on the signed-URL pool.
+     */
+    private class SignedUrlLoader implements CacheLoader<String, String> {
+
+        @Override
+        public String load(String objectPath) {
+            try {
+                return sign(objectPath);
+            } catch (Exception e) {
+                log.warn("Failed to sign URL for {}: {}", objectPath, e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public String reload(String objectPath, String oldUrl) {
+            return sign(objectPath);
+        }
+
+        @Override
+        public Map<String, String> loadAll(Set<? extends String> objectPaths) {
+            Map<String, CompletableFuture<String>> pending = new HashMap<>();
+            for (String path : objectPaths) {
+                pending.put(path, CompletableFuture.supplyAsync(() -> load(path), signedUrlExecutor));
+            }
+            Map<String, String> urls = new HashMap<>();
+            pending.forEach((path, future) -> {
+                String url = future.join();
+                if (url != null) urls.put(path, url);
+            });
+            return urls;
+        }
+    }
+
+    /**
+     * An uploaded image: its object path, SHA-256 (null when dedup is off) and size; {@code reused} if the index
+     * already had the content and nothing was written.
+     */
+    public record StoredImage(String path, String sha256, long sizeBytes, boolean reused) {
+    }
+
+    /**
+     * Upload image to bucket/images/{sha256}.{ext} ({uuid} when app.upload.dedup=false). The multipart part is
+     * already spooled to a local temp file, so it is hashed from disk first; content that is already stored is reused
+     * without writing to GCS. Otherwise the part is copied to a resumable upload through a fixed buffer, so memory
+     * per upload is bounded by the upload chunk size, and hashed again while streaming to catch a changed file.
+     */
+    public StoredImage uploadImage(MultipartFile file) throws IOException {
+        return uploadImage(file, file.getOriginalFilename(), file.getContentType(), file.getSize());
+    }
+
+    /** Same as {@link #uploadImage(MultipartFile)} for an image in a local file (bulk import). */
+    public StoredImage uploadImage(Path file, String filename) throws IOException {
+        return uploadImage(new FileSystemResource(file), filename, null, Files.size(file));
+    }
+
+    private StoredImage uploadImage(InputStreamSource file, String filename, String declaredType, long size)
+            throws IOException {
+        String sha256 = null;
+        if (dedupUploads) {
+            try (InputStream in = file.getInputStream()) {
+                sha256 = sha256Hex(in);
+            }
+            Optional<String> existing = imageBlobService.findPath(sha256);
+            if (existing.isPresent()) {
+                log.debug("Upload {} is a duplicate of {}", filename, existing.get());
+                return new StoredImage(existing.get(), sha256, size, true);
+            }
+        }
+        String ext = extension(filename, "jpg");
+        String name = IMAGES_PREFIX + (sha256 != null ? sha256 : UUID.randomUUID().toString()) + "." + ext;
+        try (InputStream in = file.getInputStream()) {
+            String streamed = uploadStream(name, in, declaredType);
+            if (sha256 != null && !sha256.equals(streamed)) {
+                storage.delete(BlobId.of(bucketName, name));
+                throw new IOException("Upload of " + name + " changed while it was being sent");
+            }
+        } catch (StorageException e) {
+            // Content-addressed name already taken: the same image is stored (concurrent upload, or not yet indexed)
+            if (sha256 == null || e.getCode() != 412) throw e;
+            log.debug("Upload {} already stored as {}", filename, name);
+        }
+        return new StoredImage(name, sha256, size, false);
+    }
 
-    /** Upload image to bucket/images/{uuid}.{ext} */
-    public String uploadImage(MultipartFile file) throws IOException {
-        String ext = extension(file.getOriginalFilename(), "jpg");
-        String name = IMAGES_PREFIX + UUID.randomUUID() + "." + ext;
+    /**
+     * Streams {@code in} to a new object {@code name} and checks the stored CRC32C against the one computed while
+     * sending; on mismatch the object is deleted and an IOException thrown. The Content-Type is sniffed from the first
+     * bytes when app.upload.sniff-content-type is on, falling back to {@code declaredType}, then image/jpeg.
+     * Returns the hex SHA-256 of the bytes sent.
+     */
+    String uploadStream(String name, InputStream in, String declaredType) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        int head = in.readNBytes(buffer, 0, buffer.length);
+        String sniffed = sniffContentType ? ContentTypeSniffer.sniff(buffer, head) : null;
+        if (sniffed != null && declaredType != null && !sniffed.equalsIgnoreCase(declaredType)) {
+            log.debug("Upload {} declared {} but content is {}", name, declaredType, sniffed);
+        }
+        String contentType = sniffed != null ? sniffed : declaredType != null ? declaredType : "image/jpeg";
         BlobId blobId = BlobId.of(bucketName, name);
-        BlobInfo info = BlobInfo.newBuilder(blobId)
-                .setContentType(file.getContentType() != null ? file.getContentType() : "image/jpeg")
-                .build();
-        storage.create(info, file.getBytes());
-        return name;
+        BlobInfo info = BlobInfo.newBuilder(blobId).setContentType(contentType).build();
+
+        CRC32C crc = new CRC32C();
+        MessageDigest sha = sha256();
+        long size = 0;
+        try (WriteChannel channel = storage.writer(info, Storage.BlobWriteOption.doesNotExist())) {
+            channel.setChunkSize(uploadChunkBytes);
+            for (int n = head; n > 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+                sha.update(buffer, 0, n);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                while (chunk.hasRemaining()) channel.write(chunk);
+                size += n;
+            }
+        }
+
+        String expected = crc32cBase64(crc);
+        Blob stored = storage.get(blobId, Storage.BlobGetOption.fields(Storage.BlobField.CRC32C, Storage.BlobField.SIZE));
+        if (stored == null || !expected.equals(stored.getCrc32c())) {
+            storage.delete(blobId);
+            throw new IOException("Upload of " + name + " failed checksum verification (sent " + size + " bytes, crc32c "
+                    + expected + ", stored " + (stored != null ? stored.getCrc32c() : "nothing") + ")");
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    /**
+     * Moves a finished resumable upload ({@code uploads/...}, see ResumableUploadService) to its image name with a
+     * server-side copy, deduplicated like {@link #uploadImage(MultipartFile)}: content already stored is reused and
+     * nothing is copied. The temporary object is deleted once the image is stored; if the copy fails it is kept, so
+     * the caller can try again. {@code sha256} is the hash of the bytes received.
+     */
+    public StoredImage adoptUpload(String tempPath, String sha256, String filename, long size) {
+        BlobId temp = BlobId.of(bucketName, tempPath);
+        StoredImage stored = null;
+        if (dedupUploads) {
+            Optional<String> existing = imageBlobService.findPath(sha256);
+            if (existing.isPresent()) {
+                log.debug("Upload {} is a duplicate of {}", filename, existing.get());
+                stored = new StoredImage(existing.get(), sha256, size, true);
+            }
+        }
+        if (stored == null) {
+            String name = IMAGES_PREFIX + (dedupUploads ? sha256 : UUID.randomUUID().toString()) + "."
+                    + extension(filename, "jpg");
+            try {
+                storage.copy(Storage.CopyRequest.newBuilder()
+                        .setSource(temp)
+                        .setTarget(BlobId.of(bucketName, name), Storage.BlobTargetOption.doesNotExist())
+                        .build()).getResult();
+            } catch (StorageException e) {
+                // Content-addressed name already taken: the same image is stored
+                if (!dedupUploads || e.getCode() != 412) throw e;
+                log.debug("Upload {} already stored as {}", filename, name);
+            }
+            stored = new StoredImage(name, dedupUploads ? sha256 : null, size, false);
+        }
+        storage.delete(temp);
+        return stored;
+    }
+
+    /** CRC32C as GCS reports it (base64 of the big-endian value). */
+    static String crc32cBase64(CRC32C crc) {
+        return Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    private static String sha256Hex(InputStream in) throws IOException {
+        MessageDigest sha = sha256();
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            sha.update(buffer, 0, n);
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     /** Upload text to bucket/texts/{uuid}.txt */
     public String uploadText(String content) throws IOException {
-        String name = TEXTS_PREFIX + UUID.randomUUID() + ".txt";
+        String name = newTextPath();
+        uploadText(name, content);
+        return name;
+    }
+
+    /** Object path for a new text upload, for callers that record the path before the upload finishes. */
+    public String newTextPath() {
+        return TEXTS_PREFIX + UUID.randomUUID() + ".txt";
+    }
+
+    /** Upload text to the given path (from {@link #newTextPath()}). */
+    public void uploadText(String name, String content) throws IOException {
         BlobId blobId = BlobId.of(bucketName, name);
         BlobInfo info = BlobInfo.newBuilder(blobId)
                 .setContentType("text/plain; charset=utf-8")
                 .build();
         storage.create(info, content.getBytes(StandardCharsets.UTF_8));
-        return name;
     }
 
     /** Returns a signed URL valid 24h; cached so same URL is reused and browser can cache the image (loads live, no buffer). */
     public String getSignedUrl(String objectPath) {
         if (objectPath == null || objectPath.isEmpty()) return null;
-        String cached = signedUrlCache.getIfPresent(objectPath);
-        if (cached != null) return cached;
-        try {
-            BlobInfo info = BlobInfo.newBuilder(BlobId.of(bucketName, objectPath)).build();
-            URL signed = storage.signUrl(info, SIGNED_URL_VALIDITY_HOURS, TimeUnit.HOURS, Storage.SignUrlOption.httpMethod(HttpMethod.GET));
-            String url = signed != null ? signed.toString() : null;
-            if (url != null) signedUrlCache.put(objectPath, url);
-            return url;
-        } catch (Exception e) {
-            log.warn("Failed to sign URL for {}: {}", objectPath, e.getMessage());
-            return null;
-        }
+        return signedUrlCache.get(objectPath);
+    }
+
+    private String sign(String objectPath) {
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of(bucketName, objectPath)).build();
+        URL signed = storage.signUrl(info, SIGNED_URL_VALIDITY_HOURS, TimeUnit.HOURS, Storage.SignUrlOption.httpMethod(HttpMethod.GET));
+        if (signed == null) throw new IllegalStateException("signUrl returned null");
+        return signed.toString();
     }
 
     /** Returns URL for the object: public GCS URL if gcp.public-urls=true, else cached signed URL. */
@@ -95,6 +363,92 @@ public class StorageService {
         return getSignedUrl(objectPath);
     }
 
+    /**
+     * URLs for many objects at once (path to URL; paths that cannot be signed are absent). Cached URLs are returned
+     * directly and the misses are signed in parallel, so a list request does not wait on one signUrl call after another.
+     */
+    public Map<String, String> getPublicUrls(Collection<String> objectPaths) {
+        Set<String> paths = new LinkedHashSet<>();
+        for (String path : objectPaths) {
+            if (path != null && !path.isEmpty()) paths.add(path);
+        }
+        if (paths.isEmpty()) return Map.of();
+        if (!publicUrls) return signedUrlCache.getAll(paths);
+        Map<String, String> urls = new HashMap<>();
+        for (String path : paths) urls.put(path, getPublicUrl(path));
+        return urls;
+    }
+
+    /** A cached signed URL and the time its cache entry expires (epoch millis), for {@link WarmCacheSnapshot}. */
+    public record SignedUrlEntry(String path, String url, long expiresAtMillis) {
+    }
+
+    /** Current signed-URL cache entries with their expiry times. Reading them does not count as access. */
+    public List<SignedUrlEntry> signedUrlEntries() {
+        var expiry = signedUrlCache.policy().expireVariably().orElseThrow();
+        long now = System.currentTimeMillis();
+        List<SignedUrlEntry> entries = new ArrayList<>();
+        signedUrlCache.asMap().forEach((path, url) -> expiry.getExpiresAfter(path).ifPresent(left ->
+                entries.add(new SignedUrlEntry(path, url, now + left.toMillis()))));
+        return entries;
+    }
+
+    /**
+     * Puts saved entries back with their remaining lifetime, skipping those with less than {@code minRemaining} left.
+     * Entries that were already due for refresh-ahead are re-signed in the background. Returns the number restored.
+     */
+    public int restoreSignedUrls(Collection<SignedUrlEntry> entries, Duration minRemaining) {
+        var expiry = signedUrlCache.policy().expireVariably().orElseThrow();
+        long now = System.currentTimeMillis();
+        long refreshDueBelowMs = TimeUnit.MINUTES.toMillis(SIGNED_URL_CACHE_MINUTES - refreshAfterMinutes);
+        List<String> due = new ArrayList<>();
+        int restored = 0;
+        for (SignedUrlEntry entry : entries) {
+            long remainingMs = entry.expiresAtMillis() - now;
+            if (remainingMs < minRemaining.toMillis()) continue;
+            expiry.putIfAbsent(entry.path(), entry.url(), Duration.ofMillis(remainingMs));
+            if (remainingMs < refreshDueBelowMs) due.add(entry.path());
+            restored++;
+        }
+        if (!due.isEmpty()) {
+            signedUrlExecutor.execute(() -> due.forEach(signedUrlCache::refresh));
+        }
+        return restored;
+    }
+
+    /**
+     * Makes sure the given objects have a cached signed URL with at least {@code minRemaining} left: missing ones are
+     * signed in parallel, nearly expired ones re-signed (the old URL is served until then). Returns the number signed.
+     */
+    public int warmSignedUrls(List<String> objectPaths, Duration minRemaining) {
+        if (publicUrls) return 0;
+        var expiry = signedUrlCache.policy().expireVariably().orElseThrow();
+        List<String> missing = new ArrayList<>();
+        List<CompletableFuture<String>> refreshing = new ArrayList<>();
+        for (String path : objectPaths) {
+            if (path == null || path.isEmpty()) continue;
+            Optional<Duration> left = expiry.getExpiresAfter(path);
+            if (left.isEmpty()) {
+                missing.add(path);
+            } else if (left.get().compareTo(minRemaining) < 0) {
+                refreshing.add(signedUrlCache.refresh(path).exceptionally(e -> null));
+            }
+        }
+        if (!missing.isEmpty()) signedUrlCache.getAll(missing);
+        refreshing.forEach(CompletableFuture::join);
+        return missing.size() + refreshing.size();
+    }
+
+    public boolean isPublicUrls() {
+        return publicUrls;
+    }
+
+    /** After a DB swap, object paths may no longer be referenced; start the signed-URL cache from scratch. */
+    @EventListener
+    public void onDbSwapped(DbSwappedEvent event) {
+        signedUrlCache.invalidateAll();
+    }
+
     private static String extension(String filename, String fallback) {
         if (filename == null || !filename.contains(".")) return fallback;
         return filename.substring(filename.lastIndexOf('.') + 1);
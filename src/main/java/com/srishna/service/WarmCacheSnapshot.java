@@ -0,0 +1,219 @@
+package com.srishna.service;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the warm caches to the bucket (gs://bucket/cache/warm-caches.bin) periodically and on shutdown, and loads
+ * them while the next instance starts, before it takes traffic. The file holds the signed-URL cache with each
+ * entry's expiry time, and the serialized feed bodies with a fingerprint of the post data they were built from.
+ * On load, expired (or nearly expired) URLs are dropped, and feed bodies are only used if the restored DB still has
+ * the same fingerprint and image URL mode. Feeds with embedded signed URLs are also dropped once older than app.feed-body.max-age-seconds.
+ * The file is a cache: if it is missing, stale or unreadable, the instance simply starts cold.
+ */
+@Component
+@Slf4j
+public class WarmCacheSnapshot implements SmartInitializingSingleton {
+
+    private static final int MAGIC = 0x5357_4331; // "SWC1"
+
+    /**
+     * Identifies the data a feed was built from: post count, max and sum of ids and latest post version
+     * (updated_at or created_at, so activation changes count), plus user count and max id (uploader names).
+     */
+    private static final String FINGERPRINT_SQL = "SELECT "
+            + "(SELECT count(*) || ':' || coalesce(max(id), 0) || ':' || coalesce(sum(id), 0) || ':' "
+            + "|| coalesce(max(coalesce(updated_at, created_at)), 0) FROM posts) || '|' || "
+            + "(SELECT count(*) || ':' || coalesce(max(id), 0) FROM users)";
+
+    private final Storage storage;
+    private final StorageService storageService;
+    private final FeedBodyCache feedBodyCache;
+    private final DataGeneration dataGeneration;
+    private final PostService postService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnly;
+    private final TaskScheduler scheduler;
+
+    @Value("${gcp.bucket-name}")
+    private String bucketName;
+
+    @Value("${app.warm-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.warm-cache.object-name:cache/warm-caches.bin}")
+    private String objectName;
+
+    @Value("${app.warm-cache.interval-seconds:600}")
+    private long intervalSeconds;
+
+    /** Signed URLs with less lifetime than this left are not restored. */
+    @Value("${app.warm-cache.min-remaining-minutes:10}")
+    private long minRemainingMinutes;
+
+    @Value("${app.feed-body.max-age-seconds:60}")
+    private long feedMaxAgeSeconds;
+
+    /** Content of the last upload, to skip uploading an unchanged snapshot. */
+    private byte[] lastSaved;
+
+    public WarmCacheSnapshot(Storage storage,
+                             StorageService storageService,
+                             FeedBodyCache feedBodyCache,
+                             DataGeneration dataGeneration,
+                             PostService postService,
+                             JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             @Qualifier("cacheSnapshotScheduler") TaskScheduler scheduler) {
+        this.storage = storage;
+        this.storageService = storageService;
+        this.feedBodyCache = feedBodyCache;
+        this.dataGeneration = dataGeneration;
+        this.postService = postService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.scheduler = scheduler;
+    }
+
+    /** Runs once all beans exist, i.e. after the DB restore and before the web server accepts requests. */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) return;
+        long started = System.nanoTime();
+        try {
+            restore();
+        } catch (Exception e) {
+            log.warn("Warm cache snapshot not loaded, starting cold: {}", e.getMessage());
+        }
+        log.info("Warm cache snapshot loaded in {} ms", (System.nanoTime() - started) / 1_000_000);
+        // First save after one interval, so a cold instance does not overwrite a fuller snapshot right away
+        Duration interval = Duration.ofSeconds(intervalSeconds);
+        scheduler.scheduleWithFixedDelay(this::saveQuietly, Instant.now().plus(interval), interval);
+    }
+
+    @PreDestroy
+    void onShutdown() {
+        if (enabled) saveQuietly();
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (Exception e) {
+            log.warn("Warm cache snapshot not saved: {}", e.getMessage());
+        }
+    }
+
+    /** Writes the current caches to the bucket, unless they are unchanged since the last save. */
+    synchronized void save() throws IOException {
+        long generation = dataGeneration.current();
+        String fingerprint = fingerprint();
+        Map<String, FeedBodyCache.FeedBody> feeds = dataGeneration.current() == generation
+                ? feedBodyCache.bodiesOf(generation)
+                : Map.of();
+        List<StorageService.SignedUrlEntry> urls = new ArrayList<>(storageService.signedUrlEntries());
+        urls.sort(Comparator.comparing(StorageService.SignedUrlEntry::path));
+        if (urls.isEmpty() && feeds.isEmpty()) return;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(buffer))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(fingerprint);
+            out.writeInt(urls.size());
+            for (StorageService.SignedUrlEntry entry : urls) {
+                out.writeUTF(entry.path());
+                out.writeUTF(entry.url());
+                // Whole minutes (rounded down), so an unchanged cache gives the same bytes and is not uploaded again
+                out.writeLong(entry.expiresAtMillis() / 60_000 * 60_000);
+            }
+            out.writeInt(feeds.size());
+            for (Map.Entry<String, FeedBodyCache.FeedBody> feed : feeds.entrySet()) {
+                out.writeUTF(feed.getKey());
+                out.writeLong(feed.getValue().builtAtMillis());
+                out.writeInt(feed.getValue().identity().length);
+                out.write(feed.getValue().identity());
+            }
+        }
+        byte[] content = buffer.toByteArray();
+        if (Arrays.equals(content, lastSaved)) return;
+        storage.create(BlobInfo.newBuilder(BlobId.of(bucketName, objectName))
+                .setContentType("application/octet-stream")
+                .build(), content);
+        lastSaved = content;
+        log.info("Saved warm cache snapshot to gs://{}/{} ({} URLs, {} feeds, {} bytes)",
+                bucketName, objectName, urls.size(), feeds.size(), content.length);
+    }
+
+    private void restore() throws IOException {
+        Blob blob = storage.get(BlobId.of(bucketName, objectName));
+        if (blob == null) {
+            log.info("No warm cache snapshot at gs://{}/{}", bucketName, objectName);
+            return;
+        }
+        byte[] content = blob.getContent();
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(content)))) {
+            if (in.readInt() != MAGIC) throw new IOException("unknown snapshot format");
+            String savedFingerprint = in.readUTF();
+            int urlCount = in.readInt();
+            List<StorageService.SignedUrlEntry> urls = new ArrayList<>(urlCount);
+            for (int i = 0; i < urlCount; i++) {
+                urls.add(new StorageService.SignedUrlEntry(in.readUTF(), in.readUTF(), in.readLong()));
+            }
+            int restoredUrls = storageService.isPublicUrls()
+                    ? 0
+                    : storageService.restoreSignedUrls(urls, Duration.ofMinutes(minRemainingMinutes));
+
+            boolean sameData = savedFingerprint.equals(fingerprint());
+            long oldestFeed = postService.embedsSignedUrls()
+                    ? System.currentTimeMillis() - Duration.ofSeconds(feedMaxAgeSeconds).toMillis()
+                    : Long.MIN_VALUE;
+            int feedCount = in.readInt();
+            int restoredFeeds = 0;
+            for (int i = 0; i < feedCount; i++) {
+                String name = in.readUTF();
+                long builtAt = in.readLong();
+                byte[] identity = in.readNBytes(in.readInt());
+                if (sameData && builtAt >= oldestFeed) {
+                    feedBodyCache.restore(name, identity, builtAt);
+                    restoredFeeds++;
+                }
+            }
+            lastSaved = content;
+            log.info("Restored warm caches from gs://{}/{}: {}/{} signed URLs, {}/{} feeds{}", bucketName, objectName,
+                    restoredUrls, urlCount, restoredFeeds, feedCount, sameData ? "" : " (post data or URL mode changed)");
+        }
+    }
+
+    private String fingerprint() {
+        return readOnly.execute(status -> jdbcTemplate.queryForObject(FINGERPRINT_SQL, String.class))
+                + "|" + postService.imageUrlMode();
+    }
+}